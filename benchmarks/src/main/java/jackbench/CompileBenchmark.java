@@ -0,0 +1,68 @@
+package jackbench;
+
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Lexing, parsing and VM generation of every class of a program in memory, with and without the parse tree xml. The
+ * lines counter gives source lines per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompileBenchmark {
+
+    @Param({"10/ArrayTest", "10/ExpressionLessSquare", "10/Square", "11/Average", "11/ComplexArrays",
+            "11/ConvertToBin", "11/Pong", "11/Seven", "11/Square", Inputs.SYNTHETIC + "default", Inputs.SYNTHETIC + "many-classes",
+            Inputs.SYNTHETIC + "wide", Inputs.SYNTHETIC + "deep", Inputs.SYNTHETIC + "expressions",
+            Inputs.SYNTHETIC + "strings", Inputs.SYNTHETIC + "arrays"})
+    public String program;
+
+    @Param({"false", "true"})
+    public boolean xml;
+
+    private Collection<String> sources;
+    private long lines;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long lines;
+    }
+
+    @State(Scope.Thread)
+    public static class Engine {
+        Object engine;
+
+        @Setup
+        public void setup() throws Throwable {
+            engine = Jack.newEngine();
+        }
+    }
+
+    @Setup
+    public void setup() throws Throwable {
+        sources = Inputs.sources(program).values();
+        lines = Inputs.lines(sources);
+    }
+
+    @Benchmark
+    public int compile(Engine engine, Counters counters) throws Throwable {
+        int length = 0;
+        for (String source : sources) {
+            StringWriter vm = new StringWriter();
+            Writer xmlOutput = xml ? new StringWriter() : null;
+            Jack.compile(engine.engine, source, vm, xmlOutput);
+            length += vm.getBuffer().length();
+        }
+        counters.lines += lines;
+        return length;
+    }
+}
@@ -0,0 +1,76 @@
+package jackbench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * End to end: a CompilerDriver compiling a program's directory to disk the way Main does, files read and written
+ * included. The program is copied to a temporary directory first, so the outputs don't land in the repository. The
+ * driver compiles on its own worker threads, which are gone by the time the GC profiler looks, so the allocation rate
+ * only covers the calling thread; CompileBenchmark has the compiler's own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DirectoryBenchmark {
+
+    @Param({"10/Square", "11/ComplexArrays", "11/Pong", "11/Square", Inputs.SYNTHETIC + "default",
+            Inputs.SYNTHETIC + "many-classes"})
+    public String program;
+
+    @Param({"false", "true"})
+    public boolean xml;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private Path root;
+    private String inputDirectory;
+    private String outputDirectory;
+    private File[] files;
+    private PrintStream console;
+
+    @Setup
+    public void setup() throws Throwable {
+        root = Files.createTempDirectory("jackbench");
+        Path input = Files.createDirectory(root.resolve("in"));
+        Files.createDirectory(root.resolve("out"));
+        for (Map.Entry<String, String> source : Inputs.sources(program).entrySet()) {
+            Files.writeString(input.resolve(source.getKey() + ".jack"), source.getValue());
+        }
+        inputDirectory = input + File.separator;
+        outputDirectory = root.resolve("out") + File.separator;
+        files = input.toFile().listFiles((dir, name) -> name.endsWith(".jack"));
+        // the driver prints every file name
+        console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        System.setOut(console);
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public void compile() throws Throwable {
+        Jack.compileDirectory(inputDirectory, outputDirectory, files, threads, xml);
+    }
+}
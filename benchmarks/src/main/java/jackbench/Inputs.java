@@ -0,0 +1,67 @@
+package jackbench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The programs the benchmarks compile, named like a @Param value: "10/Square" or "11/Pong" for a directory under
+ * Projects, "synthetic/wide" for a program CorpusGenerator generates in that shape. Projects is looked up in the
+ * working directory and its parent, the jack.projects system property overrides it. Generated programs use the seed
+ * in jack.seed, 1 by default.
+ */
+final class Inputs {
+
+    static final String SYNTHETIC = "synthetic/";
+
+    private Inputs() {
+    }
+
+    /**
+     * @return the .jack files of the program, sorted by name
+     */
+    static File[] files(String program) throws IOException {
+        File directory = new File(projects(), program);
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".jack"));
+        if (files == null || files.length == 0) {
+            throw new IOException("No .jack files in " + directory.getAbsolutePath());
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+    /**
+     * @return the source of every class of the program by class name
+     */
+    static Map<String, String> sources(String program) throws Throwable {
+        if (program.startsWith(SYNTHETIC)) {
+            return Jack.generate(program.substring(SYNTHETIC.length()), Long.getLong("jack.seed", 1));
+        }
+        Map<String, String> sources = new LinkedHashMap<>();
+        for (File file : files(program)) {
+            sources.put(file.getName().replace(".jack", ""), Files.readString(file.toPath()));
+        }
+        return sources;
+    }
+
+    static long lines(Collection<String> sources) {
+        long lines = 0;
+        for (String source : sources) {
+            lines += source.lines().count();
+        }
+        return lines;
+    }
+
+    private static File projects() {
+        String property = System.getProperty("jack.projects");
+        if (property != null) {
+            return new File(property);
+        }
+        File projects = new File("Projects");
+        return projects.isDirectory() ? projects : new File("../Projects");
+    }
+}
@@ -0,0 +1,189 @@
+package jackbench;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Map;
+
+/**
+ * The compiler's classes live in the default package, which code in a package can't name, and JMH won't generate
+ * code for benchmarks in the default package. These handles are looked up once; as static finals the JIT treats them
+ * as constants, so a call through one costs about as much as a direct call. Compiler objects are passed around as
+ * Object.
+ */
+final class Jack {
+
+    private static final MethodHandle SOURCE_OF; // SourceBuffer.of(CharSequence)
+    private static final MethodHandle NEW_TOKEN_STREAM; // new TokenStream(SourceBuffer)
+    private static final MethodHandle TOKEN_COUNT; // TokenStream.size()
+    private static final MethodHandle NEW_ENGINE; // new CompilationEngine()
+    private static final MethodHandle SET_CONSOLE; // CompilationEngine.setConsole(PrintStream)
+    private static final MethodHandle INIT; // CompilationEngine.init(SourceBuffer, Writer, Writer, Writer)
+    private static final MethodHandle COMPILE_CLASS; // CompilationEngine.compileClass()
+    private static final MethodHandle CLOSE; // CompilationEngine.close()
+    private static final MethodHandle NEW_SYMBOL_TABLE; // new SymbolTable()
+    private static final MethodHandle DEFINE; // SymbolTable.define(int, String, String, kind)
+    private static final MethodHandle LOOKUP; // SymbolTable.lookup(int)
+    private static final MethodHandle RESET; // SymbolTable.reset()
+    private static final MethodHandle NEW_DRIVER; // new CompilerDriver(String, String, int)
+    private static final MethodHandle SET_QUIET; // CompilerDriver.setQuiet()
+    private static final MethodHandle SET_OUTPUT_MODE; // CompilerDriver.setOutputMode(OutputMode)
+    private static final MethodHandle COMPILE; // CompilerDriver.compile(File[])
+    private static final MethodHandle CORPUS_SHAPE; // CorpusGenerator.shape(String, long)
+    private static final MethodHandle GENERATE; // CorpusGenerator.generate()
+
+    private static final Object[] KINDS; // SymbolTable.kind STATIC, FIELD, ARG, VAR
+    private static final Object VM_ONLY; // OutputMode.VM
+    private static final Object ALL_OUTPUTS; // OutputMode.ALL
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> sourceBuffer = Class.forName("SourceBuffer");
+            Class<?> tokenStream = Class.forName("TokenStream");
+            Class<?> engine = Class.forName("CompilationEngine");
+            Class<?> symbolTable = Class.forName("SymbolTable");
+            Class<?> kind = Class.forName("SymbolTable$kind");
+            Class<?> driver = Class.forName("CompilerDriver");
+            Class<?> outputMode = Class.forName("OutputMode");
+            Class<?> corpusGenerator = Class.forName("CorpusGenerator");
+
+            SOURCE_OF = erase(lookup.findStatic(sourceBuffer, "of",
+                    MethodType.methodType(sourceBuffer, CharSequence.class)));
+            NEW_TOKEN_STREAM = erase(lookup.findConstructor(tokenStream,
+                    MethodType.methodType(void.class, sourceBuffer)));
+            TOKEN_COUNT = erase(lookup.findVirtual(tokenStream, "size", MethodType.methodType(int.class)));
+            NEW_ENGINE = erase(lookup.findConstructor(engine, MethodType.methodType(void.class)));
+            SET_CONSOLE = erase(lookup.findVirtual(engine, "setConsole",
+                    MethodType.methodType(void.class, PrintStream.class)));
+            INIT = erase(lookup.findVirtual(engine, "init",
+                    MethodType.methodType(void.class, sourceBuffer, Writer.class, Writer.class, Writer.class)));
+            COMPILE_CLASS = erase(lookup.findVirtual(engine, "compileClass", MethodType.methodType(void.class)));
+            CLOSE = erase(lookup.findVirtual(engine, "close", MethodType.methodType(void.class)));
+            NEW_SYMBOL_TABLE = erase(lookup.findConstructor(symbolTable, MethodType.methodType(void.class)));
+            DEFINE = erase(lookup.findVirtual(symbolTable, "define",
+                    MethodType.methodType(void.class, int.class, String.class, String.class, kind)));
+            LOOKUP = erase(lookup.findVirtual(symbolTable, "lookup",
+                    MethodType.methodType(Class.forName("SymbolProperty"), int.class)));
+            RESET = erase(lookup.findVirtual(symbolTable, "reset", MethodType.methodType(void.class)));
+            NEW_DRIVER = erase(lookup.findConstructor(driver,
+                    MethodType.methodType(void.class, String.class, String.class, int.class)));
+            SET_QUIET = erase(lookup.findVirtual(driver, "setQuiet", MethodType.methodType(void.class)));
+            SET_OUTPUT_MODE = erase(lookup.findVirtual(driver, "setOutputMode",
+                    MethodType.methodType(void.class, outputMode)));
+            COMPILE = erase(lookup.findVirtual(driver, "compile", MethodType.methodType(void.class, File[].class)));
+            CORPUS_SHAPE = erase(lookup.findStatic(corpusGenerator, "shape",
+                    MethodType.methodType(corpusGenerator, String.class, long.class)));
+            GENERATE = erase(lookup.findVirtual(corpusGenerator, "generate", MethodType.methodType(Map.class)));
+
+            KINDS = new Object[]{constant(kind, "STATIC"), constant(kind, "FIELD"), constant(kind, "ARG"),
+                    constant(kind, "VAR")};
+            VM_ONLY = constant(outputMode, "VM");
+            ALL_OUTPUTS = constant(outputMode, "ALL");
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Jack() {
+    }
+
+    /**
+     * @return the handle with every compiler class in its type replaced by Object
+     */
+    private static MethodHandle erase(MethodHandle handle) {
+        MethodType type = handle.type();
+        for (int i = 0; i < type.parameterCount(); i++) {
+            if (isCompilerClass(type.parameterType(i))) {
+                type = type.changeParameterType(i, Object.class);
+            }
+        }
+        if (isCompilerClass(type.returnType())) {
+            type = type.changeReturnType(Object.class);
+        }
+        return handle.asType(type);
+    }
+
+    private static boolean isCompilerClass(Class<?> type) {
+        return !type.isPrimitive() && !type.isArray() && type.getPackageName().isEmpty();
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object constant(Class<?> enumClass, String name) {
+        return Enum.valueOf((Class) enumClass, name);
+    }
+
+    /**
+     * Lexes a whole class
+     * @return the number of tokens
+     */
+    static int lex(CharSequence source) throws Throwable {
+        Object tokens = (Object) NEW_TOKEN_STREAM.invokeExact((Object) SOURCE_OF.invokeExact(source));
+        return (int) TOKEN_COUNT.invokeExact(tokens);
+    }
+
+    /**
+     * @return a CompilationEngine that prints nothing while compiling
+     */
+    static Object newEngine() throws Throwable {
+        Object engine = (Object) NEW_ENGINE.invokeExact();
+        SET_CONSOLE.invokeExact(engine, (PrintStream) null);
+        return engine;
+    }
+
+    /**
+     * Compiles one class in memory
+     * @param xml receives the parse tree xml, null to skip it
+     */
+    static void compile(Object engine, CharSequence source, Writer vm, Writer xml) throws Throwable {
+        INIT.invokeExact(engine, (Object) SOURCE_OF.invokeExact(source), vm, xml, (Writer) null);
+        COMPILE_CLASS.invokeExact(engine);
+        CLOSE.invokeExact(engine);
+    }
+
+    static Object newSymbolTable() throws Throwable {
+        return (Object) NEW_SYMBOL_TABLE.invokeExact();
+    }
+
+    /**
+     * @param kind 0 to 3 for static, field, argument and local
+     */
+    static void define(Object table, int id, String name, String type, int kind) throws Throwable {
+        DEFINE.invokeExact(table, id, name, type, KINDS[kind]);
+    }
+
+    /**
+     * @return the SymbolProperty of the id, null if it isn't defined
+     */
+    static Object lookup(Object table, int id) throws Throwable {
+        return (Object) LOOKUP.invokeExact(table, id);
+    }
+
+    static void reset(Object table) throws Throwable {
+        RESET.invokeExact(table);
+    }
+
+    /**
+     * Compiles files the way Main does, through a CompilerDriver
+     * @param xml true to write both xml files as well, false for .vm files only
+     */
+    static void compileDirectory(String inputDirectory, String outputDirectory, File[] files, int threads,
+                                 boolean xml) throws Throwable {
+        Object driver = (Object) NEW_DRIVER.invokeExact(inputDirectory, outputDirectory, threads);
+        SET_QUIET.invokeExact(driver);
+        SET_OUTPUT_MODE.invokeExact(driver, xml ? ALL_OUTPUTS : VM_ONLY);
+        COMPILE.invokeExact(driver, files);
+    }
+
+    /**
+     * @param shape a CorpusGenerator shape, e.g. wide
+     * @return the source of every class of the generated program by class name
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, String> generate(String shape, long seed) throws Throwable {
+        return (Map<String, String>) GENERATE.invokeExact((Object) CORPUS_SHAPE.invokeExact(shape, seed));
+    }
+}
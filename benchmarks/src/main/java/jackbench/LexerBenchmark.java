@@ -0,0 +1,47 @@
+package jackbench;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Lexing on its own, what --lex-only does. The tokens counter gives tokens per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LexerBenchmark {
+
+    @Param({"10/ArrayTest", "10/ExpressionLessSquare", "10/Square", "11/Average", "11/ComplexArrays",
+            "11/ConvertToBin", "11/Pong", "11/Seven", "11/Square", Inputs.SYNTHETIC + "default", Inputs.SYNTHETIC + "many-classes",
+            Inputs.SYNTHETIC + "wide", Inputs.SYNTHETIC + "deep", Inputs.SYNTHETIC + "expressions",
+            Inputs.SYNTHETIC + "strings", Inputs.SYNTHETIC + "arrays"})
+    public String program;
+
+    private Collection<String> sources;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long tokens;
+    }
+
+    @Setup
+    public void setup() throws Throwable {
+        sources = Inputs.sources(program).values();
+    }
+
+    @Benchmark
+    public int lex(Counters counters) throws Throwable {
+        int tokens = 0;
+        for (String source : sources) {
+            tokens += Jack.lex(source);
+        }
+        counters.tokens += tokens;
+        return tokens;
+    }
+}
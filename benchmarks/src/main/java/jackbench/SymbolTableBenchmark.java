@@ -0,0 +1,76 @@
+package jackbench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * SymbolTable on its own: filling a scope the way a subroutine declares its variables, then resolving names in it.
+ * Ids are spread like TokenStream's interned identifiers, which are shared by every scope of a class.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SymbolTableBenchmark {
+
+    @Param({"8", "64", "512"})
+    public int symbols;
+
+    private Object table;
+    private String[] names;
+    private int[] ids;
+
+    @Setup
+    public void setup() throws Throwable {
+        table = Jack.newSymbolTable();
+        names = new String[symbols];
+        ids = new int[symbols];
+        for (int i = 0; i < symbols; i++) {
+            names[i] = "name" + i;
+            ids[i] = i * 3 + 1; // other identifiers of the class sit in between
+        }
+    }
+
+    /**
+     * Resets the scope, then defines every symbol, split over the four kinds
+     */
+    @Benchmark
+    public Object define() throws Throwable {
+        Jack.reset(table);
+        for (int i = 0; i < symbols; i++) {
+            Jack.define(table, ids[i], names[i], "int", i & 3);
+        }
+        return table;
+    }
+
+    /**
+     * Looks up one defined symbol and one name that isn't in the scope, moving on to the next symbol every call so
+     * the whole scope is covered. Each call does the same work whatever the scope size, so the rows compare.
+     */
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public void lookup(Blackhole blackhole, Filled filled) throws Throwable {
+        int id = ids[filled.next];
+        filled.next = filled.next + 1 == symbols ? 0 : filled.next + 1;
+        blackhole.consume(Jack.lookup(filled.table, id));
+        blackhole.consume(Jack.lookup(filled.table, id + 1));
+    }
+
+    @State(Scope.Thread)
+    public static class Filled {
+        Object table;
+        int next; // the symbol the next lookup call starts with
+
+        @Setup
+        public void setup(SymbolTableBenchmark benchmark) throws Throwable {
+            table = Jack.newSymbolTable();
+            for (int i = 0; i < benchmark.symbols; i++) {
+                Jack.define(table, benchmark.ids[i], benchmark.names[i], "int", i & 3);
+            }
+        }
+    }
+}
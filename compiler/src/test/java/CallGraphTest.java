@@ -0,0 +1,134 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CallGraphTest {
+
+    @TempDir
+    Path directory;
+
+    /**
+     * A.f has B.g inlined into it, after which it is a leaf itself. Inlining it into Main as well put A.f's arguments
+     * in the temps B.g's body uses, so the result depended on the order the files were read in.
+     */
+    @Test
+    void nestedInliningDoesNotReuseTemps() throws IOException {
+        write("Main", "class Main { function void main() { do Output.printInt(A.f(10, 6)); return; } }");
+        write("A", "class A { function int f(int x, int z) { return B.g(z) + x; } }");
+        write("B", "class B { function int g(int y) { return y + y; } }");
+        compile();
+
+        assertEquals("22", inlineAndRun(List.of("A", "B", "Main")));
+        compile();
+        assertEquals("22", inlineAndRun(List.of("Main", "B", "A")));
+    }
+
+    /**
+     * A body that starts by pushing its last argument may only keep it on the stack when it is the only argument,
+     * otherwise the pops of the other arguments take it off the top
+     */
+    @Test
+    void multipleArgumentsLandInTheirOwnTemps() throws IOException {
+        write("Main", """
+                class Main {
+                    function void main() {
+                        do Output.printInt(Main.f(10, 3));
+                        do Output.printInt(Main.g(1, 2, 10));
+                        do Output.printInt(Main.h(5));
+                        return;
+                    }
+                    function int f(int x, int y) {
+                        return y - x;
+                    }
+                    function int g(int a, int b, int c) {
+                        return c - (a + b);
+                    }
+                    function int h(int a) {
+                        return a - 1;
+                    }
+                }
+                """);
+        compile();
+
+        assertEquals("-774", inlineAndRun(List.of("Main")));
+    }
+
+    /**
+     * The compiler writes a block comment and the next instruction on one line
+     */
+    @Test
+    void instructionsAfterCommentsAreKept() throws IOException {
+        write("Main", """
+                class Main {
+                    function void main() {
+                        var P p;
+                        let p = P.new(8);
+                        /* greet */ do Main.greet();
+                        do Output.printInt(p.getX());
+                        return;
+                    }
+                    function void greet() {
+                        do Output.printInt(7);
+                        return;
+                    }
+                }
+                """);
+        write("P", """
+                class P {
+                    field int x;
+                    constructor P new(int ax) {
+                        let x = ax;
+                        return this;
+                    }
+                    method int getX() {
+                        return /* the x */ x;
+                    }
+                }
+                """);
+        compile();
+
+        CallGraph graph = new CallGraph();
+        graph.add(directory.resolve("Main.vm"));
+        graph.add(directory.resolve("P.vm"));
+        assertEquals(1, graph.inline(10));
+        assertEquals(List.of("P.getX"), graph.prune(List.of("Main.main")));
+        graph.save();
+        assertEquals("78", run());
+    }
+
+    private void write(String className, String source) throws IOException {
+        Files.writeString(directory.resolve(className + ".jack"), source);
+    }
+
+    private void compile() throws IOException {
+        File[] files = directory.toFile().listFiles((dir, name) -> name.endsWith(".jack"));
+        CompilerDriver driver = new CompilerDriver(directory.toString(), directory.toString(), 1);
+        driver.setQuiet();
+        driver.setOutputMode(OutputMode.VM);
+        driver.compile(files);
+    }
+
+    private String inlineAndRun(List<String> classes) throws IOException {
+        CallGraph graph = new CallGraph();
+        for (String className : classes) {
+            graph.add(directory.resolve(className + ".vm"));
+        }
+        graph.inline(10);
+        graph.save();
+        return run();
+    }
+
+    private String run() throws IOException {
+        VMInterpreter interpreter = new VMInterpreter();
+        interpreter.load(directory.toFile());
+        interpreter.run();
+        return interpreter.getOutput();
+    }
+}
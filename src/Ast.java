@@ -0,0 +1,217 @@
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Syntax tree of one Jack class, built by JackParser and walked by the generators. Nodes keep the token positions the
+ * parser was at when the code generator used to write VM code, so block comments copied from the source still land
+ * between the same instructions.
+ */
+public final class Ast {
+
+    private Ast() {
+    }
+
+    public interface Statement {
+        void accept(AstVisitor visitor) throws IOException;
+    }
+
+    public interface Term {
+        void accept(AstVisitor visitor) throws IOException;
+    }
+
+    /**
+     * An identifier that may name a variable
+     * @param id the id the TokenStream interned the text under, only unique within one file
+     */
+    public record Name(String text, int id) {
+    }
+
+    /**
+     * A type as written: keyword for int, char and boolean, identifier for class names
+     */
+    public record Type(String name, boolean keyword) {
+    }
+
+    /**
+     * @param tablePosition where the class symbol table is written, after the class variables
+     * @param closePosition the closing brace
+     * @param endPosition after the closing brace
+     */
+    public record Class(String name, List<ClassVarDec> varDecs, List<Subroutine> subroutines,
+                        int tablePosition, int closePosition, int endPosition) {
+        public void accept(AstVisitor visitor) throws IOException {
+            visitor.visitClass(this);
+        }
+    }
+
+    /**
+     * @param kind static or field
+     */
+    public record ClassVarDec(String kind, Type type, List<Name> names) {
+    }
+
+    /**
+     * @param kind constructor, function or method
+     * @param returnType null for void
+     * @param statements null when the body has no statements at all
+     * @param functionPosition where the function starts, after the local variables
+     */
+    public record Subroutine(String kind, Type returnType, String name, List<Parameter> parameters,
+                             List<VarDec> varDecs, Statements statements, int functionPosition) {
+    }
+
+    public record Parameter(Type type, Name name) {
+    }
+
+    public record VarDec(Type type, List<Name> names) {
+    }
+
+    public record Statements(List<Statement> statements) {
+    }
+
+    /**
+     * @param index null unless assigning to an array element
+     * @param namePosition after the variable name
+     * @param indexEndPosition after the closing bracket
+     * @param endPosition the semicolon
+     */
+    public record Let(Name name, Expression index, Expression value,
+                      int namePosition, int indexEndPosition, int endPosition) implements Statement {
+        public void accept(AstVisitor visitor) throws IOException {
+            visitor.visitLet(this);
+        }
+    }
+
+    /**
+     * @param otherwise null without an else branch
+     * @param conditionEndPosition the opening brace
+     * @param thenEndPosition the closing brace of the then branch
+     * @param endPosition after the statement
+     */
+    public record If(Expression condition, Statements then, Statements otherwise,
+                     int conditionEndPosition, int thenEndPosition, int endPosition) implements Statement {
+        public void accept(AstVisitor visitor) throws IOException {
+            visitor.visitIf(this);
+        }
+    }
+
+    /**
+     * @param startPosition the opening parenthesis
+     * @param conditionEndPosition the opening brace
+     * @param bodyEndPosition the closing brace
+     * @param endPosition after the statement
+     */
+    public record While(Expression condition, Statements body,
+                        int startPosition, int conditionEndPosition, int bodyEndPosition, int endPosition)
+            implements Statement {
+        public void accept(AstVisitor visitor) throws IOException {
+            visitor.visitWhile(this);
+        }
+    }
+
+    public record Do(Call call) implements Statement {
+        public void accept(AstVisitor visitor) throws IOException {
+            visitor.visitDo(this);
+        }
+    }
+
+    /**
+     * @param value null for return;
+     * @param startPosition after the return keyword
+     * @param endPosition the semicolon
+     */
+    public record Return(Expression value, int startPosition, int endPosition) implements Statement {
+        public void accept(AstVisitor visitor) throws IOException {
+            visitor.visitReturn(this);
+        }
+    }
+
+    /**
+     * term (op term)*
+     * @param termPositions where each term starts, it may be longer than terms
+     * @param endPosition after the last term, where the ops are written
+     */
+    public record Expression(List<Term> terms, List<Character> ops, int[] termPositions, int endPosition) {
+        public void accept(AstVisitor visitor) throws IOException {
+            visitor.visitExpression(this);
+        }
+    }
+
+    public record IntegerConstant(int value, int position) implements Term {
+        public void accept(AstVisitor visitor) throws IOException {
+            visitor.visitIntegerConstant(this);
+        }
+    }
+
+    public record StringConstant(String value, int position) implements Term {
+        public void accept(AstVisitor visitor) throws IOException {
+            visitor.visitStringConstant(this);
+        }
+    }
+
+    /**
+     * true, false, null or this
+     */
+    public record KeywordConstant(String keyword, int position) implements Term {
+        public void accept(AstVisitor visitor) throws IOException {
+            visitor.visitKeywordConstant(this);
+        }
+    }
+
+    /**
+     * What the parser leaves for a term that starts with anything else, it consumes no tokens
+     */
+    public record EmptyTerm() implements Term {
+        public void accept(AstVisitor visitor) throws IOException {
+            visitor.visitEmptyTerm(this);
+        }
+    }
+
+    /**
+     * @param position after the op, where the operand starts
+     * @param endPosition after the operand, where the op is written
+     */
+    public record Unary(char op, Term operand, int position, int endPosition) implements Term {
+        public void accept(AstVisitor visitor) throws IOException {
+            visitor.visitUnary(this);
+        }
+    }
+
+    public record Parenthesized(Expression expression) implements Term {
+        public void accept(AstVisitor visitor) throws IOException {
+            visitor.visitParenthesized(this);
+        }
+    }
+
+    /**
+     * @param position after the variable name
+     */
+    public record Variable(Name name, int position) implements Term {
+        public void accept(AstVisitor visitor) throws IOException {
+            visitor.visitVariable(this);
+        }
+    }
+
+    /**
+     * @param position the opening bracket
+     * @param endPosition after the closing bracket
+     */
+    public record ArrayElement(Name name, Expression index, int position, int endPosition) implements Term {
+        public void accept(AstVisitor visitor) throws IOException {
+            visitor.visitArrayElement(this);
+        }
+    }
+
+    /**
+     * subroutineName '(' expressionList ')' | (className|varName) '.' subroutineName '(' expressionList ')'
+     * @param target the class or variable before the dot, null for a method of this class
+     * @param position after the first identifier
+     * @param endPosition after the closing parenthesis
+     */
+    public record Call(Name target, Name name, List<Expression> arguments, int position, int endPosition)
+            implements Term {
+        public void accept(AstVisitor visitor) throws IOException {
+            visitor.visitCall(this);
+        }
+    }
+}
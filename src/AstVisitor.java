@@ -0,0 +1,39 @@
+import java.io.IOException;
+
+/**
+ * One method per node type. Visitors walk the children themselves, so each decides its own order.
+ */
+public interface AstVisitor {
+
+    void visitClass(Ast.Class node) throws IOException;
+
+    void visitLet(Ast.Let node) throws IOException;
+
+    void visitIf(Ast.If node) throws IOException;
+
+    void visitWhile(Ast.While node) throws IOException;
+
+    void visitDo(Ast.Do node) throws IOException;
+
+    void visitReturn(Ast.Return node) throws IOException;
+
+    void visitExpression(Ast.Expression node) throws IOException;
+
+    void visitIntegerConstant(Ast.IntegerConstant node) throws IOException;
+
+    void visitStringConstant(Ast.StringConstant node) throws IOException;
+
+    void visitKeywordConstant(Ast.KeywordConstant node) throws IOException;
+
+    void visitEmptyTerm(Ast.EmptyTerm node) throws IOException;
+
+    void visitUnary(Ast.Unary node) throws IOException;
+
+    void visitParenthesized(Ast.Parenthesized node) throws IOException;
+
+    void visitVariable(Ast.Variable node) throws IOException;
+
+    void visitArrayElement(Ast.ArrayElement node) throws IOException;
+
+    void visitCall(Ast.Call node) throws IOException;
+}
@@ -0,0 +1,103 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * On disk record of the hash each source file had when it was last compiled. The hash covers the file contents,
+ * the compiler version and the compile options, so changing any of them makes the file compile again.
+ */
+public class BuildCache {
+
+    public static final String MANIFEST_NAME = ".jackcache";
+
+    private final Path manifest;
+    private final String fingerprint;
+    private final Map<String, String> hashes = new ConcurrentHashMap<>();
+
+    /**
+     * Loads the manifest from the output directory if there is one
+     * @param outputDirectory the directory the compiled files are written to
+     * @param fingerprint the compiler version and options, mixed into every hash
+     * @throws IOException if an existing manifest can't be read
+     */
+    public BuildCache(Path outputDirectory, String fingerprint) throws IOException {
+        this.manifest = outputDirectory.resolve(MANIFEST_NAME);
+        this.fingerprint = fingerprint;
+        if (Files.exists(manifest)) {
+            for (String line : Files.readAllLines(manifest)) {
+                int split = line.lastIndexOf(' ');
+                if (!line.startsWith("#") && split > 0) {
+                    hashes.put(line.substring(0, split), line.substring(split + 1));
+                }
+            }
+        }
+    }
+
+    /**
+     * @param source the .jack file
+     * @return the hash of the file contents and the fingerprint
+     * @throws IOException if the file can't be read
+     */
+    public String hash(Path source) throws IOException {
+        return hash(Files.readAllBytes(source), fingerprint);
+    }
+
+    /**
+     * @param contents the contents of a .jack file
+     * @param fingerprint the compiler version and options
+     * @return the SHA-256 of both as hex
+     */
+    public static String hash(byte[] contents, String fingerprint) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JVM has to provide SHA-256
+        }
+        digest.update(fingerprint.getBytes());
+        digest.update((byte) 0);
+        digest.update(contents);
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * @return true if the file had the same hash when it was last compiled
+     */
+    public boolean isUpToDate(String name, String hash) {
+        return hash.equals(hashes.get(name));
+    }
+
+    public void record(String name, String hash) {
+        hashes.put(name, hash);
+    }
+
+    public void remove(String name) {
+        hashes.remove(name);
+    }
+
+    /**
+     * Writes the manifest, replacing the old one in a single move
+     * @throws IOException if the manifest can't be written
+     */
+    public void save() throws IOException {
+        Path temp = manifest.resolveSibling(MANIFEST_NAME + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp)) {
+            writer.write("# source hash, written by the compiler\n");
+            for (Map.Entry<String, String> entry : new TreeMap<>(hashes).entrySet()) {
+                writer.write(entry.getKey() + " " + entry.getValue() + "\n");
+            }
+        }
+        Files.move(temp, manifest, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,298 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Call graph of a whole program, read back from the .vm files of every class. Used to inline small functions and to
+ * drop functions that can't be reached from the program's entry points, which Jack makes exact: every call names its
+ * target, there are no function pointers.
+ */
+public class CallGraph {
+
+    private static final String PADDING = "    "; // written before every instruction and on the line before every function
+    private static final int FIRST_INLINE_TEMP = 3; // temp 0 to 2 are used by the compiler's own sequences
+    private static final int INLINE_TEMPS = 5;
+
+    // the text of one function, from its padding line up to the next function
+    private static class Function {
+        private final String name;
+        private final int nVars;
+        private final List<String> lines = new ArrayList<>();
+
+        Function(String name, int nVars) {
+            this.name = name;
+            this.nVars = nVars;
+        }
+
+        private String className() {
+            return name.substring(0, name.indexOf('.'));
+        }
+
+        /**
+         * @return the instruction on every line, null for padding, comments and the function line. The compiler
+         * writes the source's block comments right before an instruction, on the same line, so they are cut off first.
+         */
+        private String[] instructions() {
+            String[] instructions = new String[lines.size()];
+            boolean inComment = false;
+            for (int i = 0; i < lines.size(); i++) {
+                String line = lines.get(i);
+                int start = 0;
+                while (start < line.length()) {
+                    if (inComment) {
+                        int end = line.indexOf("*/", start);
+                        inComment = end < 0;
+                        start = end < 0 ? line.length() : end + 2;
+                    } else if (line.startsWith("/*", start)) {
+                        inComment = true;
+                        start += 2;
+                    } else if (Character.isWhitespace(line.charAt(start))) {
+                        start++;
+                    } else {
+                        break;
+                    }
+                }
+                String instruction = line.substring(start).trim();
+                if (!instruction.isEmpty() && !instruction.startsWith("//") && !instruction.startsWith("function ")) {
+                    instructions[i] = instruction;
+                }
+            }
+            return instructions;
+        }
+    }
+
+    private final Map<Path, List<String>> headers = new LinkedHashMap<>(); // text before the first function
+    private final Map<Path, List<Function>> files = new LinkedHashMap<>();
+    private final Map<String, Function> functions = new HashMap<>();
+    private final Set<Path> changed = new HashSet<>();
+
+    /**
+     * Reads the functions of one class
+     * @param vmFile a .vm file written by the compiler
+     * @throws IOException if the file can't be read
+     */
+    public void add(Path vmFile) throws IOException {
+        List<String> header = new ArrayList<>();
+        List<Function> fileFunctions = new ArrayList<>();
+        Function current = null;
+        for (String line : Files.readAllLines(vmFile)) {
+            if (line.startsWith("function ")) {
+                List<String> previous = current == null ? header : current.lines;
+                String[] parts = line.split(" ");
+                current = new Function(parts[1], Integer.parseInt(parts[2]));
+                // the padding line belongs to the function it comes before
+                if (!previous.isEmpty() && previous.get(previous.size() - 1).equals(PADDING)) {
+                    current.lines.add(previous.remove(previous.size() - 1));
+                }
+                fileFunctions.add(current);
+                functions.put(current.name, current);
+            }
+            (current == null ? header : current.lines).add(line);
+        }
+        headers.put(vmFile, header);
+        files.put(vmFile, fileFunctions);
+    }
+
+    /**
+     * @return true if one of the added files defines the function
+     */
+    public boolean contains(String function) {
+        return functions.containsKey(function);
+    }
+
+    /**
+     * @param roots the functions the program starts in
+     * @return every function defined in the added files that a root calls directly or indirectly, roots included
+     */
+    public Set<String> reachable(Collection<String> roots) {
+        Set<String> reached = new HashSet<>();
+        ArrayDeque<String> pending = new ArrayDeque<>(roots);
+        while (!pending.isEmpty()) {
+            Function function = functions.get(pending.pop());
+            // calls into the OS or other classes that weren't compiled aren't followed
+            if (function != null && reached.add(function.name)) {
+                for (String line : function.instructions()) {
+                    String[] instruction = line == null ? null : line.split(" ");
+                    if (instruction != null && instruction[0].equals("call")) {
+                        pending.add(instruction[1]);
+                    }
+                }
+            }
+        }
+        return reached;
+    }
+
+    /**
+     * Removes the functions the roots can't reach
+     * @param roots the functions the program starts in
+     * @return the names of the removed functions, in file order
+     */
+    public List<String> prune(Collection<String> roots) {
+        for (String root : roots) {
+            if (!contains(root)) {
+                throw new IllegalArgumentException("Root function " + root + " is not defined in any compiled class");
+            }
+        }
+        Set<String> reached = reachable(roots);
+        List<String> removed = new ArrayList<>();
+        for (Map.Entry<Path, List<Function>> file : files.entrySet()) {
+            for (Iterator<Function> it = file.getValue().iterator(); it.hasNext(); ) {
+                Function function = it.next();
+                if (!reached.contains(function.name)) {
+                    it.remove();
+                    functions.remove(function.name);
+                    removed.add(function.name);
+                    changed.add(file.getKey());
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Replaces calls to small leaf functions with their body. A function is inlined if it is straight line code
+     * ending in its only return, calls nothing, doesn't use THAT or temp 3 to 7, only uses statics of the caller's
+     * own class and its arguments and locals fit in temp 3 to 7. Arguments and locals move to those temps, and THIS
+     * becomes THAT so the caller's THIS survives; THAT is never live across an expression in compiled code. A function
+     * that had a call inlined into it isn't inlined itself, so the result doesn't depend on the order of the files.
+     * A single argument that the body pushes first and uses nowhere else stays on the stack instead of going through
+     * a temp.
+     * @param threshold the most instructions a function may have besides function and return
+     * @return the number of calls replaced
+     */
+    public int inline(int threshold) {
+        int inlined = 0;
+        for (Map.Entry<Path, List<Function>> file : files.entrySet()) {
+            for (Function caller : file.getValue()) {
+                List<String> lines = new ArrayList<>();
+                String[] instructions = caller.instructions();
+                for (int i = 0; i < instructions.length; i++) {
+                    String line = caller.lines.get(i);
+                    String[] instruction = instructions[i] == null ? null : instructions[i].split(" ");
+                    List<String> body = null;
+                    if (instruction != null && instruction[0].equals("call")) {
+                        Function callee = functions.get(instruction[1]);
+                        if (callee != null && callee != caller) {
+                            body = inlineBody(callee, Integer.parseInt(instruction[2]), caller.className(), threshold);
+                        }
+                    }
+                    if (body == null) {
+                        lines.add(line);
+                    } else {
+                        String comment = line.substring(0, line.lastIndexOf(instructions[i])).stripTrailing();
+                        if (!comment.isEmpty()) {
+                            lines.add(comment); // the comment written in front of the call stays
+                        }
+                        lines.addAll(body);
+                        inlined++;
+                        changed.add(file.getKey());
+                    }
+                }
+                caller.lines.clear();
+                caller.lines.addAll(lines);
+            }
+        }
+        return inlined;
+    }
+
+    /**
+     * @return the instructions replacing a call to the function, or null if it can't be inlined
+     */
+    private static List<String> inlineBody(Function callee, int nArgs, String callerClass, int threshold) {
+        List<String[]> body = new ArrayList<>();
+        for (String instruction : callee.instructions()) {
+            if (instruction != null) {
+                body.add(instruction.split(" "));
+            }
+        }
+        if (body.isEmpty() || !body.get(body.size() - 1)[0].equals("return") || body.size() - 1 > threshold
+                || nArgs + callee.nVars > INLINE_TEMPS) {
+            return null;
+        }
+        body.remove(body.size() - 1);
+
+        int argumentUses = 0; // uses of argument 0, see argumentOnStack
+        for (String[] instruction : body) {
+            switch (instruction[0]) {
+                case "push", "pop" -> {
+                    String segment = instruction[1];
+                    int index = Integer.parseInt(instruction[2]);
+                    // temp 3 to 7 in use means a call was already inlined into the callee, its temps would clash
+                    if (segment.equals("that") || segment.equals("pointer") && index == 1
+                            || segment.equals("temp") && index >= FIRST_INLINE_TEMP
+                            || segment.equals("static") && !callee.className().equals(callerClass)) {
+                        return null;
+                    }
+                    if (segment.equals("argument") && index == 0) {
+                        argumentUses++;
+                    }
+                }
+                case "add", "sub", "neg", "eq", "gt", "lt", "and", "or", "not" -> {
+                }
+                default -> {
+                    return null; // calls, jumps, labels and another return
+                }
+            }
+        }
+
+        // A function with a single argument finds it on top of the stack, so if the body's first instruction is its
+        // only use of the argument, that push and the pop into a temp can both go. Only for exactly one argument: with
+        // more, the pops of the arguments below would take the last one off the top instead of their own values.
+        boolean argumentOnStack = nArgs == 1 && argumentUses == 1 && body.get(0)[0].equals("push")
+                && body.get(0)[1].equals("argument") && Integer.parseInt(body.get(0)[2]) == 0;
+        List<String> lines = new ArrayList<>();
+        for (int i = nArgs - 1; i >= 0; i--) {
+            if (!argumentOnStack) {
+                lines.add(PADDING + "pop temp " + (FIRST_INLINE_TEMP + i));
+            }
+        }
+        for (int i = 0; i < callee.nVars; i++) {
+            lines.add(PADDING + "push constant 0"); // locals start out as 0
+            lines.add(PADDING + "pop temp " + (FIRST_INLINE_TEMP + nArgs + i));
+        }
+        for (int i = argumentOnStack ? 1 : 0; i < body.size(); i++) {
+            lines.add(PADDING + remap(body.get(i), nArgs));
+        }
+        return lines;
+    }
+
+    private static String remap(String[] instruction, int nArgs) {
+        if (instruction.length < 3) {
+            return instruction[0];
+        }
+        int index = Integer.parseInt(instruction[2]);
+        return switch (instruction[1]) {
+            case "argument" -> instruction[0] + " temp " + (FIRST_INLINE_TEMP + index);
+            case "local" -> instruction[0] + " temp " + (FIRST_INLINE_TEMP + nArgs + index);
+            case "this" -> instruction[0] + " that " + index;
+            case "pointer" -> instruction[0] + " pointer 1";
+            default -> String.join(" ", instruction);
+        };
+    }
+
+    /**
+     * Writes every file that inline or prune changed
+     * @throws IOException if a file can't be written
+     */
+    public void save() throws IOException {
+        for (Map.Entry<Path, List<Function>> file : files.entrySet()) {
+            if (!changed.contains(file.getKey())) {
+                continue;
+            }
+            try (BufferedWriter writer = Files.newBufferedWriter(file.getKey())) {
+                for (String line : headers.get(file.getKey())) {
+                    writer.write(line);
+                    writer.write('\n');
+                }
+                for (Function function : file.getValue()) {
+                    for (String line : function.lines) {
+                        writer.write(line);
+                        writer.write('\n');
+                    }
+                }
+            }
+        }
+        changed.clear();
+    }
+}
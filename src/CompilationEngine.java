@@ -1,71 +1,33 @@
 import java.io.*;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Objects;
-
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compiles one class at a time: JackParser builds the syntax tree, then XMLGenerator writes the parse tree xml and
+ * VMGenerator the VM code.
+ */
 public class CompilationEngine {
 
-    private enum subroutineType{
-        CONSTRUCTOR,
-        FUNCTION,
-        METHOD
-    }
-
-    private enum varOp{
-        PUSH,
-        POP
-    }
-
-    private subroutineType currentSubroutineType = null;
-
-    private FileWriter xmlWriter;
+    private Writer xmlWriter;
+    private Writer tokenXMLWriter;
+    private String tokenXMLFileName;
+    private boolean writeParseXML;
+    private boolean ownsOutputs; // outputs opened by init(fileName, ...) are closed by close()
     private VMWriter vmWriter;
     private JackTokenizer tokenizer;
+    private PrintStream console = System.out;
+    private PeepholeOptimizer optimizer = null;
+    private LocalAllocator localAllocator = null;
+    private boolean writeAsm = false;
+    private boolean fuseAsm = false;
+    private HackWriter hackWriter;
+    private final VMGenerator vmGenerator = new VMGenerator();
 
-
-    private final SymbolTable classLevelSymbols = new SymbolTable();
-    private final SymbolTable subroutineLevelSymbols = new SymbolTable();
-
-
-    private TokenType currentTokenType;
-    private String currentClass = null;
-    private boolean generateTokenXML = false;
-    private int indentCount;
-    private final String indents = "    ";
-
-    private final HashMap<Character,String> symbolRepresentationXML = new HashMap<>();
-    private final ArrayList<String> classVarDecKeywords = new ArrayList<>(List.of("static","field"));
-    private final ArrayList<String> typeKeywords = new ArrayList<>(List.of("int","char","boolean", "Array"));
-    private final ArrayList<String> subroutineDecKeywords = new ArrayList<>(List.of("constructor","function","method"));
-
-    private final ArrayList<Character> unaryOp = new ArrayList<>(List.of('-','~'));
-    private final HashMap<Character, Ops> unaryOpsTable = new HashMap<>();
-
-    private final ArrayList<Character> op = new ArrayList<>(List.of('+','-','*','/','&','|','<','>','='));
-    private final HashMap<Character, Ops> opsTable = new HashMap<>();
-
-    private final ArrayList<String> keywordConstant = new ArrayList<>(List.of("true","false","null","this"));
+    private OutputMode outputMode = OutputMode.VM_PARSE_XML;
 
     public CompilationEngine() throws IOException {
-        indentCount = 0;
-
-
-        symbolRepresentationXML.put('<',"&lt;");
-        symbolRepresentationXML.put('>',"&gt;");
-        symbolRepresentationXML.put('\"',"&quot;");
-        symbolRepresentationXML.put('&',"&amp;");
-
-        opsTable.put('+', Ops.ADD);
-        opsTable.put('-', Ops.SUB);
-        opsTable.put('&', Ops.AND);
-        opsTable.put('|', Ops.OR);
-        opsTable.put('<', Ops.LT);
-        opsTable.put('>', Ops.GT);
-        opsTable.put('=', Ops.EQ);
-
-        unaryOpsTable.put('-', Ops.NEG);
-        unaryOpsTable.put('~', Ops.NOT);
     }
 
     /**
@@ -76,740 +38,277 @@ public class CompilationEngine {
      * @throws IOException if file not found
      */
     public void init(String fileName, String inputDirectory, String outputDirectory) throws IOException {
-        tokenizer = new JackTokenizer(fileName, inputDirectory, outputDirectory);
-
+        SourceBuffer source = new SourceBuffer(fileName);
         String output = fileName.replace(inputDirectory, outputDirectory);
-        xmlWriter = new FileWriter(output.replace(".jack",".xml"));
-        vmWriter = new VMWriter(output.replace(".jack",".vm"));
-        tokenizer.setVMWriter(vmWriter);
-    }
-    public void setGenerateTokenXML(){
-        generateTokenXML = true;
-    }
-
-    public void close() throws IOException {
-        tokenizer.close();
-        xmlWriter.close();
-        vmWriter.close();
-    }
-    private void advance() throws IOException {
-        tokenizer.advance();
-        if (generateTokenXML){
-            tokenizer.writeTokenToFile();
+        // disabled outputs don't get a file
+        Writer xml = outputMode.parseXML() ? new FileWriter(output.replace(".jack",".xml")) : null;
+        init(source, new FileWriter(output.replace(".jack",".vm")), xml, null);
+        if (writeAsm) {
+            String className = new File(fileName).getName().replace(".jack", "");
+            setAsmOutput(new FileWriter(output.replace(".jack", ".asm")), className);
         }
-        currentTokenType = tokenizer.getType();
+
+        // T.xml is written in one go by compileClass, so the file is only opened then
+        tokenXMLFileName = output.replace(".jack", "T.xml");
+        ownsOutputs = true;
     }
 
-    private void eatTerminalSymbol(char c) throws IOException {
-        char t = tokenizer.symbol();
-        if (c != t){
-            throw new IllegalArgumentException("Exception in class " + currentClass + " Unexpected token on line " + tokenizer.getLineNumber() + "\n" +
-                    "expected: " + c + " received: " + t);
+    /**
+     * Starts the compilation engine for source that is already in memory, nothing is read from or written to disk
+     * @param source the Jack class to compile
+     * @param vmOutput receives the VM code
+     * @param xmlOutput receives the parse tree xml, null to skip it
+     * @param tokenXMLOutput receives the token xml, null to skip it
+     */
+    public void init(SourceBuffer source, Writer vmOutput, Writer xmlOutput, Writer tokenXMLOutput){
+        tokenizer = new JackTokenizer(source);
+
+        // a disabled output gets a sink that discards everything, and the xml helpers skip building strings
+        writeParseXML = xmlOutput != null;
+        xmlWriter = writeParseXML ? xmlOutput : Writer.nullWriter();
+        tokenXMLWriter = tokenXMLOutput;
+        tokenXMLFileName = null;
+        ownsOutputs = false;
+        vmWriter = new VMWriter(vmOutput);
+        hackWriter = null;
+        vmWriter.setOptimizer(optimizer);
+        vmGenerator.init(vmWriter, tokenizer.getTokenStream());
+        if (optimizer != null) {
+            optimizer.resetCounts(); // counts are reported per class
         }
-        writeTerminalSymbolXML(t);
-        advance();
-    }
-    private void writeTerminalSymbolXML(char symbol) throws IOException {
-        String xmlString = indents.repeat(indentCount) + "<symbol> ";
-        if (symbolRepresentationXML.containsKey(symbol)){
-            xmlString += symbolRepresentationXML.get(symbol);
-        } else {
-            xmlString += symbol;
+        vmWriter.setLocalAllocator(localAllocator);
+        if (localAllocator != null) {
+            localAllocator.resetCounts();
         }
-        xmlWriter.write(xmlString + " </symbol>\n");
+        tokenizer.setVMWriter(null); // VMGenerator copies the comments itself
+        tokenizer.setConsole(console);
     }
 
-    private void eatTerminalKeyword(String keyword) throws IOException {
-        String s = tokenizer.keyword();
-        if (!s.equals(keyword)){
-            throw new IllegalArgumentException("Exception in class " + currentClass + "Unexpected token on line " + tokenizer.getLineNumber() + "\n" +
-                    "expected: " + keyword + " received: " + s);
-        }
-        writeTerminalKeywordXML(keyword);
-        advance();
-    }
-    private void writeTerminalKeywordXML(String keyword) throws IOException {
-        xmlWriter.write(indents.repeat(indentCount) + "<keyword> " + keyword + " </keyword>\n");
+    /**
+     * Also writes the class set up by init(source, ...) as Hack assembly, using the fusing chosen by setAsm
+     * @param asmOutput receives the assembly
+     * @param className the name of the class, its labels and statics are named after it
+     */
+    public void setAsmOutput(Writer asmOutput, String className){
+        hackWriter = new HackWriter(asmOutput, className, fuseAsm);
+        vmWriter.setHackWriter(hackWriter);
     }
 
-    private void eatTerminalIntegerConstant() throws IOException {
-        int intConstant = tokenizer.intVal();
-        writeTerminalIntConstantXML(intConstant);
-        advance();
-    }
-    private void writeTerminalIntConstantXML(int intConstant) throws IOException {
-        xmlWriter.write(indents.repeat(indentCount) + "<integerConstant> " + intConstant + " </integerConstant>\n");
+    /**
+     * Compiles a single class held in memory
+     * @param source the Jack class
+     * @return the VM code
+     * @throws IOException never in practice, the outputs are in memory
+     */
+    public String compile(CharSequence source) throws IOException {
+        return compile(SourceBuffer.of(source));
     }
 
-    private void eatTerminalStringConstant() throws IOException {
-        String stringConstant = tokenizer.stringVal();
-        writeTerminalStringConstantXML(stringConstant);
-        advance();
-    }
-    private void writeTerminalStringConstantXML(String stringConstant) throws IOException {
-        xmlWriter.write(indents.repeat(indentCount) + "<stringConstant> " + stringConstant + " </stringConstant>\n");
+    /**
+     * Compiles a single class held in memory
+     * @param source the Jack class, encoded bytes
+     * @return the VM code
+     * @throws IOException never in practice, the outputs are in memory
+     */
+    public String compile(ByteBuffer source) throws IOException {
+        return compile(SourceBuffer.of(source));
     }
 
-    private void eatTerminalIdentifier() throws IOException {
-        String identifier = tokenizer.identifier();
-        writeTerminalIdentifierXML(identifier);
-        advance();
+    private String compile(SourceBuffer source) throws IOException {
+        StringWriter vm = new StringWriter();
+        init(source, vm, null, null);
+        compileClass();
+        close();
+        return vm.toString();
     }
-    private void writeTerminalIdentifierXML(String identifier) throws IOException {
-        xmlWriter.write(indents.repeat(indentCount) + "<identifier> " + identifier + " </identifier>\n");
+
+    /**
+     * Compiles a single class held in memory, writing the VM code to a channel
+     * @param source the Jack class
+     * @param vmOutput receives the VM code as UTF-8
+     * @throws IOException if the channel encounters an error
+     */
+    public void compile(CharSequence source, WritableByteChannel vmOutput) throws IOException {
+        Writer vm = Channels.newWriter(vmOutput, StandardCharsets.UTF_8);
+        init(SourceBuffer.of(source), vm, null, null);
+        compileClass();
+        close();
     }
 
-    private void writeOpenTag(String tag) throws IOException {
-        xmlWriter.write(indents.repeat(indentCount) + "<" + tag + ">\n");
-        indentCount++;
+    /**
+     * Sets where the per token debug output goes, System.out by default
+     * @param console the stream to print to, null to turn it off
+     */
+    public void setConsole(PrintStream console){
+        this.console = console;
     }
-    private void writeCloseTag(String tag) throws IOException {
-        indentCount--;
-        xmlWriter.write(indents.repeat(indentCount) + "</" + tag + ">\n");
+    public void setGenerateTokenXML(){
+        outputMode = outputMode.withTokenXML();
     }
 
     /**
-     * 'class' className '{' classVarDec* subroutineDec* '}'
+     * Chooses which of the .xml and T.xml files are written next to the .vm file, must be called before init
+     * @param outputMode the files to write
      */
-    public void compileClass() throws IOException {
-
-        classLevelSymbols.reset(); // reset SymbolTable at class level
-
-        advance();
-        String tag = "class";
-        writeOpenTag(tag);
-        eatTerminalKeyword("class");
-
-        currentClass = tokenizer.getTokenString(); // store class name as it's a datatype that will be used later
-
-        eatTerminalIdentifier();
-        eatTerminalSymbol('{');
-        while (currentTokenType == TokenType.KEYWORD && classVarDecKeywords.contains(tokenizer.keyword())){
-            compileClassVarDec();
-        }
-
-        vmWriter.write(classLevelSymbols.getFormattedTable());
-
-        while (currentTokenType == TokenType.KEYWORD && subroutineDecKeywords.contains(tokenizer.keyword())){
-            compileSubroutineDec();
-        }
-        eatTerminalSymbol('}');
-        writeCloseTag(tag);
+    public void setOutputMode(OutputMode outputMode){
+        this.outputMode = outputMode;
     }
+
     /**
-     * ('static'|'field') type varName (',' varName)* ';'
+     * Turns on the peephole pass over the generated VM code, must be called before init
+     * @param optimizer the rules to run, null to turn it off
      */
-    public void compileClassVarDec() throws IOException {
-        String tag = "classVarDec";
-        writeOpenTag(tag);
-
-        String classVarKeyword = tokenizer.getTokenString(); // store keyword (kind) for symbolTable
-        // 'static' or 'field' keywords handled in calling function
-        eatTerminalKeyword(tokenizer.keyword());
-
-        String classVarType = tokenizer.getTokenString(); // store varType
-        // type -> keyword('int' | 'char' | 'boolean') | identifier
-        compileType();
-
-        String classVarName = tokenizer.getTokenString();
-
-        classLevelSymbols.define(classVarName, classVarType, SymbolTable.kind.valueOf(classVarKeyword.toUpperCase()));
-
-        tokenizer.appendToToken(classLevelSymbols.getPropertiesOfVar(classVarName));
-
-        // varName
-        eatTerminalIdentifier();
-
-        // add var to SymbolTable
-
-        // (',' varName)*
-        while (currentTokenType == TokenType.SYMBOL && tokenizer.symbol() == ','){
-            eatTerminalSymbol(',');
-
-            classVarName = tokenizer.getTokenString();
-            classLevelSymbols.define(classVarName, classVarType,
-                    SymbolTable.kind.valueOf(classVarKeyword.toUpperCase()));
-
-            eatTerminalIdentifier();
-        }
-
-        // ';'
-        eatTerminalSymbol(';');
-        writeCloseTag(tag);
+    public void setOptimizer(PeepholeOptimizer optimizer){
+        this.optimizer = optimizer;
     }
+
     /**
-     * ('constructor'|'function'|'method') ('void'|type) subroutineName '(' parameterList ')' subroutineBody
+     * @return the optimizer set by setOptimizer, its counts cover the class compiled since the last init
      */
-    public void compileSubroutineDec() throws IOException {
-        subroutineLevelSymbols.reset(); // reset subroutine SymbolTable upon entering new subroutine
-        String tag = "subroutineDec";
-        writeOpenTag(tag);
-        // ('constructor' | 'function '|' 'method') handled in calling function
-
-        String subroutineTypeString = tokenizer.getTokenString(); // Set subroutine type
-        switch (subroutineTypeString){
-            case "function" -> currentSubroutineType = subroutineType.FUNCTION;
-            case "method" -> {
-                currentSubroutineType = subroutineType.METHOD;
-                subroutineLevelSymbols.define("this", currentClass, SymbolTable.kind.ARG);
-            }
-            case "constructor" -> currentSubroutineType = subroutineType.CONSTRUCTOR;
-        }
-
-        eatTerminalKeyword(tokenizer.keyword());
-
-        //('void' | type) -> ('void' | 'int' | 'boolean' | 'char' | identifier)
-        // 'void'
-        if (currentTokenType == TokenType.KEYWORD && tokenizer.keyword().equals("void")){
-            eatTerminalKeyword("void");
-        }  else {
-            // type
-            compileType();
-        }
-        // store subroutineName
-        subroutineLevelSymbols.setName(tokenizer.identifier());
-        eatTerminalIdentifier();
-        // '('
-        eatTerminalSymbol('(');
-        // parameterList OPTIONAL
-        compileParameterList();
-        // ')'
-        eatTerminalSymbol(')');
-
-        compileSubroutineBody();
-
-        writeCloseTag(tag);
+    public PeepholeOptimizer getOptimizer(){
+        return optimizer;
     }
+
     /**
-     * ((type varName) (',' type varName)*)? (? handled in calling function)
+     * Reuses local slots of variables whose lifetimes don't overlap and drops unused ones, must be called before init
+     * @param reuseLocals true to turn it on, it's off by default
      */
-    public void compileParameterList() throws IOException {
-        String tag = "parameterList";
-        writeOpenTag(tag);
-        if ((currentTokenType == TokenType.KEYWORD) || (currentTokenType == TokenType.IDENTIFIER)) { // Arrays are IDENTIFIERS
-            // type
-            String argType = tokenizer.getTokenString(); // store argument type
-            compileType();
-            // varName
-            String argName = tokenizer.getTokenString(); // store argument name
-            subroutineLevelSymbols.define(argName, argType, SymbolTable.kind.ARG); // store argument in symbol table
-            tokenizer.appendToToken(subroutineLevelSymbols.getPropertiesOfVar(argName)); // print to xml
-            eatTerminalIdentifier();
-            // (',' type varName)*
-            while (tokenizer.symbol() == ',') {
-                // ','
-                eatTerminalSymbol(',');
-                // type
-                argType = tokenizer.getTokenString(); // store argument type
-                compileType();
-                // varName
-                argName = tokenizer.getTokenString(); // store argument name
-                subroutineLevelSymbols.define(argName, argType, SymbolTable.kind.ARG);
-                tokenizer.appendToToken(subroutineLevelSymbols.getPropertiesOfVar(argName));
-                eatTerminalIdentifier();
-            }
-        }
-        writeCloseTag(tag);
+    public void setReuseLocals(boolean reuseLocals){
+        localAllocator = reuseLocals ? new LocalAllocator() : null;
     }
+
     /**
-     * '{' varDec* statements '}'
+     * @return the allocator turned on by setReuseLocals, its counts cover the class compiled since the last init
      */
-    public void compileSubroutineBody() throws IOException {
-        String tag = "subroutineBody";
-        writeOpenTag(tag);
-        // '{'
-        eatTerminalSymbol('{');
-        // varDec*
-        while (currentTokenType == TokenType.KEYWORD && tokenizer.keyword().equals("var")){
-            compileVarDec();
-        }
-
-        // Use class name and subroutine name for function calls
-        vmWriter.writeFunction(currentClass + "." + subroutineLevelSymbols.getName(),
-                subroutineLevelSymbols.varCount(SymbolTable.kind.VAR));
-
-        vmWriter.write(subroutineLevelSymbols.getFormattedTable());
-
-        if (currentSubroutineType == subroutineType.CONSTRUCTOR){ // if the subroutine is a constructor
-            // make room in memory for every field variable
-            vmWriter.writePush(Segment.CONSTANT, classLevelSymbols.varCount(SymbolTable.kind.FIELD));
-            vmWriter.writeCall("Memory.alloc", 1);
-            // set THIS to the address in memory returned by alloc
-            vmWriter.writePop(Segment.POINTER, 0);
-        } else if (currentSubroutineType == subroutineType.METHOD){
-            vmWriter.writePush(Segment.ARGUMENT, 0);
-            vmWriter.writePop(Segment.POINTER, 0);
-        }
-        // statements
-        if (currentTokenType == TokenType.KEYWORD) {
-            compileStatements();
-        }
-        // '}'
-        eatTerminalSymbol('}');
-        writeCloseTag(tag);
+    public LocalAllocator getLocalAllocator(){
+        return localAllocator;
     }
+
     /**
-     *  'var' type varName (',' varName)* ';'
+     * Also writes each class as Hack assembly next to its .vm file, see HackWriter. Only files compiled through
+     * init(fileName, ...) get one, in memory the output is set with setAsmOutput. Must be called before init
+     * @param writeAsm true to write assembly, it's off by default
+     * @param fuseAsm true for fused assembly, false for plain
      */
-    public void compileVarDec() throws IOException {
-        String tag = "varDec";
-        writeOpenTag(tag);
-        // 'var'
-        eatTerminalKeyword("var");
-        // type
-        String subroutineVarType = tokenizer.getTokenString();
-        compileType();
-        // varName
-        String subroutineVarName = tokenizer.getTokenString();
-        subroutineLevelSymbols.define(subroutineVarName, subroutineVarType, SymbolTable.kind.VAR);
-        tokenizer.appendToToken(subroutineLevelSymbols.getPropertiesOfVar(subroutineVarName));
-        eatTerminalIdentifier();
-        //(',' varName)*
-        while (tokenizer.symbol() == ','){
-            eatTerminalSymbol(',');
-            subroutineVarName = tokenizer.getTokenString();
-            subroutineLevelSymbols.define(subroutineVarName, subroutineVarType, SymbolTable.kind.VAR);
-            tokenizer.appendToToken(subroutineLevelSymbols.getPropertiesOfVar(subroutineVarName));
-            eatTerminalIdentifier();
-        }
-        // ';'
-        eatTerminalSymbol(';');
-        writeCloseTag(tag);
+    public void setAsm(boolean writeAsm, boolean fuseAsm){
+        this.writeAsm = writeAsm;
+        this.fuseAsm = fuseAsm;
     }
+
     /**
-     * statement* -> (letStatement | ifStatement | whileStatement | doStatement | returnStatement)*
+     * @return Hack instructions written for the class compiled since the last init, 0 if none were
      */
-    public void compileStatements() throws IOException {
-        String tag = "statements";
-        writeOpenTag(tag);
-        while (currentTokenType == TokenType.KEYWORD){
-            if (tokenizer.keyword().equals("let")){
-                compileLet();
-            } else if (tokenizer.keyword().equals("if")){
-                compileIf();
-            } else if (tokenizer.keyword().equals("while")){
-                compileWhile();
-            } else if (tokenizer.keyword().equals("do")){
-                compileDo();
-            } else if (tokenizer.keyword().equals("return")){
-                compileReturn();
-            }
-        }
-        writeCloseTag(tag);
+    public int getAsmInstructions(){
+        return hackWriter == null ? 0 : hackWriter.getInstructionCount();
     }
+
     /**
-     * 'let' varName ('[' expression ']')? '=' expression ';'
+     * Writes the variables of every class and subroutine into the VM code as a comment, must be called before init
+     * @param writeSymbolTables false to leave the comments out, they're on by default
      */
-    public void compileLet() throws IOException {
-        String tag = "letStatement";
-        writeOpenTag(tag);
-        // 'let'
-        eatTerminalKeyword("let");
-        // varName ('[' expression ']')?
-
-        String varName = tokenizer.identifier(); // store varName
-        boolean varIsArray = false;
-
-        eatTerminalIdentifier();
-
-        if (tokenizer.symbol() == '['){ // Handle Arrays
-
-            varIsArray = true;
-            handleVariableInTables(varName, varOp.PUSH); // push array
-
-            eatTerminalSymbol('[');
-            compileExpression();                         // push [expression]
-            eatTerminalSymbol(']');
-            vmWriter.writeArithmetic(Ops.ADD);           // add
-        }
-        // '='
-        eatTerminalSymbol('=');
-        compileExpression();                             // expression is now at top of stack
-
-        if (varIsArray){
-            vmWriter.writePop(Segment.TEMP, 0);    // store expression 2 in temp
-            vmWriter.writePop(Segment.POINTER, 1); // set THAT to array[expression]
-            vmWriter.writePush(Segment.TEMP, 0);   // retrieve expression 2
-            vmWriter.writePop(Segment.THAT, 0);    // THAT 0 (array[expression]) is now expression 2
-        } else {
-            handleVariableInTables(varName, varOp.POP);  // pop to desired address
-        }
-
-        // ';'
-        eatTerminalSymbol(';');
-        writeCloseTag(tag);
+    public void setWriteSymbolTables(boolean writeSymbolTables){
+        vmGenerator.setWriteSymbolTables(writeSymbolTables);
     }
+
     /**
-     * 'if' '(' expression ')' '{' statements '}' ( 'else' '{' statements' '}')?
+     * Folds constant subexpressions and simplifies identities like x + 0 while compiling expressions
+     * @param foldConstants true to turn it on, it's off by default
      */
-    public void compileIf() throws IOException {
-        String tag = "ifStatement";
-        writeOpenTag(tag);
-        eatTerminalKeyword("if");
-        eatTerminalSymbol('(');
-        compileExpression(); // Expression is pushed to stack
-        eatTerminalSymbol(')');
-
-        int ifElseCount = subroutineLevelSymbols.getIfElseCount(); // get if/else count for this scope
-        subroutineLevelSymbols.incrementIfElseCount(); // increment for the next scope
-
-        vmWriter.writeArithmetic(Ops.NOT); // negate
-        // goto label if statement is false (true after negation)
-        vmWriter.writeIf(currentClass + "." + subroutineLevelSymbols.getName() + "_FALSE_"
-                + ifElseCount);
-
-        eatTerminalSymbol('{');
-        compileStatements();
-
-        vmWriter.writeGoTo(currentClass + "." + subroutineLevelSymbols.getName() + "_TRUE_"
-                + ifElseCount);
-        vmWriter.writeLabel(currentClass + "." + subroutineLevelSymbols.getName() + "_FALSE_"
-                + ifElseCount);
-
-        eatTerminalSymbol('}');
-        // ( 'else' '{' statements ']')?
-        if (currentTokenType == TokenType.KEYWORD && tokenizer.keyword().equals("else")){
-            eatTerminalKeyword("else");
-            eatTerminalSymbol('{');
-            compileStatements();
-            eatTerminalSymbol('}');
-        }
-        vmWriter.writeLabel(currentClass + "." + subroutineLevelSymbols.getName() + "_TRUE_"
-                + ifElseCount);
-        writeCloseTag(tag);
+    public void setFoldConstants(boolean foldConstants){
+        vmGenerator.setFoldConstants(foldConstants);
     }
+
     /**
-     *  whileStatement:  'while' '(' expression ')' '{' statements '}'
+     * @return operations computed at compile time in the class compiled since the last init
      */
-    public void compileWhile() throws IOException {
-        String tag = "whileStatement";
-        writeOpenTag(tag);
-        eatTerminalKeyword("while");
-
-        int loopCount = subroutineLevelSymbols.getLoopCount();
-        subroutineLevelSymbols.incrementLoopCount();
-
-        vmWriter.writeLabel(currentClass + "." + subroutineLevelSymbols.getName() + "_LOOP_START_"
-                + loopCount);
-
-        eatTerminalSymbol('(');
-        compileExpression(); // Expression pushed to stack
-        eatTerminalSymbol(')');
-
-        vmWriter.writeArithmetic(Ops.NOT);
-        vmWriter.writeIf(currentClass + "." + subroutineLevelSymbols.getName() + "_LOOP_END_"
-                + loopCount);
-
-        eatTerminalSymbol('{');
-        compileStatements();
-
-        vmWriter.writeGoTo(currentClass + "." + subroutineLevelSymbols.getName() + "_LOOP_START_"
-                + loopCount);
-
-        eatTerminalSymbol('}');
-
-        vmWriter.writeLabel(currentClass + "." + subroutineLevelSymbols.getName() + "_LOOP_END_"
-                + loopCount);
-
-        writeCloseTag(tag);
-
-        subroutineLevelSymbols.incrementLoopCount();
+    public int getFoldedExpressions(){
+        return vmGenerator.getFoldedExpressions();
     }
+
     /**
-     * doStatement:  'do' subroutineName '(' expressionList ')' |
-     * (className|varName) '.' subroutineName '(' expressionList ')' ';'
+     * @return identities like x * 1 or -(-x) removed in the class compiled since the last init
      */
-    public void compileDo() throws IOException {
-        String tag = "doStatement";
-        writeOpenTag(tag);
-        eatTerminalKeyword("do");
-
-        String identifier = tokenizer.identifier();
-
-        eatTerminalIdentifier();
-        if (tokenizer.symbol() == '(') {
-            handleIndependentMethodCall(identifier);
-        } else {
-            int methodArgs = 0;
-
-            // if it's in the symbol table it's an instantiated object calling a method
-            if (classLevelSymbols.contains(identifier)){
-                methodArgs = 1;
-                vmWriter.writePush(Objects.requireNonNull(getSegment(identifier, classLevelSymbols)),
-                        classLevelSymbols.indexOf(identifier));
-
-            } else if (subroutineLevelSymbols.contains(identifier)){
-                methodArgs = 1;
-                vmWriter.writePush(Objects.requireNonNull(getSegment(identifier, subroutineLevelSymbols)),
-                        subroutineLevelSymbols.indexOf(identifier));
-            }
-
-            handleSubroutineCall(identifier, methodArgs);
-        }
-        vmWriter.writePop(Segment.TEMP, 0);
+    public int getSimplifiedExpressions(){
+        return vmGenerator.getSimplifiedExpressions();
+    }
 
-        eatTerminalSymbol(';');
-        writeCloseTag(tag);
-    } // do subroutines are void
     /**
-     * returnStatement:  'return' expression? ';'
+     * Replaces Math.multiply and Math.divide calls that have a constant operand by inline code, off by default
+     * @param strengthReduction true to turn it on
      */
-    public void compileReturn() throws IOException {
-        String tag = "returnStatement";
-        writeOpenTag(tag);
-        eatTerminalKeyword("return");
-        if (currentTokenType == TokenType.SYMBOL && tokenizer.symbol() == ';'){
-
-            vmWriter.writePush(Segment.CONSTANT, 0); // push garbage value if void
+    public void setStrengthReduction(boolean strengthReduction){
+        vmGenerator.setStrengthReduction(strengthReduction);
+    }
 
-        } else {
-            compileExpression();
-        }
-        vmWriter.writeReturn();
-        eatTerminalSymbol(';');
-        writeCloseTag(tag);
-    } // will push constant 0 if no return value
     /**
-     *   expression:  term (op term)*
+     * @param multiplyBudget the most instructions a multiplication by a constant is replaced with
      */
-    public void compileExpression() throws IOException {
-        String tag = "expression";
-        ArrayList<Character> ops = new ArrayList<>();
-
-        writeOpenTag(tag);
-
-        compileTerm();
-        // (op term)*
-        while (currentTokenType == TokenType.SYMBOL && op.contains(tokenizer.symbol())){
-            ops.add(tokenizer.symbol());
-            eatTerminalSymbol(tokenizer.symbol());
-            compileTerm();
-        }
-        writeCloseTag(tag);
-
-        // push ops in reverse order
-        for (int i = ops.size() - 1; i >= 0; i--){
-            char op = ops.get(i);
-            switch (op){
-                case '*' -> vmWriter.writeCall("Math.multiply", 2);
-                case '/' -> vmWriter.writeCall("Math.divide", 2);
-                default -> vmWriter.writeArithmetic(opsTable.get(op));
-            }
-        }
+    public void setMultiplyBudget(int multiplyBudget){
+        vmGenerator.setMultiplyBudget(multiplyBudget);
     }
+
     /**
-     * ( expression (',' expression)*)?
-     * @return expressionCount
+     * @return Math.multiply and Math.divide calls replaced in the class compiled since the last init
      */
-    public int compileExpressionList() throws IOException {
-        int expressionCount = 0;
-        String tag = "expressionList";
-        writeOpenTag(tag);
-        if (currentTokenType != TokenType.SYMBOL || tokenizer.symbol() != ')'){
-            compileExpression();
-            expressionCount++;
-            while (currentTokenType == TokenType.SYMBOL && tokenizer.symbol() == ','){
-                eatTerminalSymbol(',');
-                compileExpression();
-                expressionCount++;
-            }
-
-        }
-        writeCloseTag(tag);
-        return expressionCount;
+    public int getReducedCalls(){
+        return vmGenerator.getReducedCalls();
     }
+
     /**
-     * term:  integerConstant | stringConstant | keywordConstant | varName | varName '[' expression ']' |
-     *        subroutineCall | '(' expression ')' | unaryOp term
+     * Builds each distinct string literal of a class once and keeps it in a static instead of building it on every
+     * evaluation. Every use then shares one String, so code that changes a literal's contents mustn't use this.
+     * @param poolStrings true to turn it on, it's off by default
      */
-    public void compileTerm() throws IOException {
-        String tag = "term";
-        writeOpenTag(tag);
-        switch (currentTokenType){
-            case INT_CONSTANT -> {                                   // integerConstant
-
-                vmWriter.writePush(Segment.CONSTANT, tokenizer.intVal());
-
-                eatTerminalIntegerConstant();
-            }
-            case STR_CONSTANT -> {                                   // stringConstant
-                handleStringConstant(tokenizer.stringVal());
-                eatTerminalStringConstant();
-            }
-            case KEYWORD -> {                                        // keywordConstant
-                if (keywordConstant.contains(tokenizer.keyword())){
-
-                    switch (tokenizer.keyword()){
-                        case "true" ->{
-                            vmWriter.writePush(Segment.CONSTANT, 1);
-                            vmWriter.writeArithmetic(Ops.NEG);                    // True is -1
-                        }
-                        case "this" -> vmWriter.writePush(Segment.POINTER, 0);
-                        default -> vmWriter.writePush(Segment.CONSTANT, 0); // False and null are 0
-                    }
-
-                    eatTerminalKeyword(tokenizer.keyword());
-                }
-            }
-            case SYMBOL -> {
-                if (unaryOp.contains(tokenizer.symbol())){// unaryOP
-
-                    char unaryOp = tokenizer.symbol(); // Store unaryOp to be pushed later
-
-                    eatTerminalSymbol(tokenizer.symbol());
-                    compileTerm();
-
-                    vmWriter.writeArithmetic(unaryOpsTable.get(unaryOp)); // write unaryOp after term
-
-                } else if (tokenizer.symbol() == '('){              // '(' expression ')'
-                    eatTerminalSymbol('(');
-                    compileExpression();
-                    eatTerminalSymbol(')');
-                }
-            }
-            case IDENTIFIER -> {
-                /* Identifiers can be any of the following:
-                   varName                                  -> push variable
-                   varName[expression]                      -> handle array
-                   varName.methodName(parameterList)        -> method call (push varName as ARG 0)
-                   methodName(parameterList)                -> independent method call (push THIS as ARG 0) same as
-                                                               this.methodName(parameterList)
-                   className.functionName                   -> static function
-                   className.constructorName(parameterList) -> constructor
-
-                   symbols not found in symbolTable are assumed to be class or subroutine (function/method/constructor)
-                   names.
-                 */
-
-
-                String identifier = tokenizer.identifier(); // store identifier
-                eatTerminalIdentifier();
-                char nextSymbol = tokenizer.symbol();
-                if (nextSymbol == '(') {
-                    handleIndependentMethodCall(identifier);
-                } else if (nextSymbol == '.'){
-                    int methodArgs = 0;
-
-                    // if it's in the symbol table it's an instantiated object calling a method
-                    if (classLevelSymbols.contains(identifier)){
-                        methodArgs = 1;
-                        vmWriter.writePush(Objects.requireNonNull(getSegment(identifier, classLevelSymbols)),
-                                classLevelSymbols.indexOf(identifier));
-
-                    } else if (subroutineLevelSymbols.contains(identifier)){
-                        methodArgs = 1;
-                        vmWriter.writePush(Objects.requireNonNull(getSegment(identifier, subroutineLevelSymbols)),
-                                subroutineLevelSymbols.indexOf(identifier));
-                    }
-
-                    handleSubroutineCall(identifier, methodArgs);
-
-                } else if (nextSymbol == '['){  // get array[expression]
-                    handleVariableInTables(identifier,varOp.PUSH); // push array address
-                    eatTerminalSymbol('[');
-                    compileExpression();                           // push value of expression
-                    eatTerminalSymbol(']');
-                    vmWriter.writeArithmetic(Ops.ADD);             // get array segment address
-                    vmWriter.writePop(Segment.POINTER, 1);   // set THAT
-                    vmWriter.writePush(Segment.THAT, 0 );    // get value of segment
-                } else {
-                    handleVariableInTables(identifier, varOp.PUSH);
-                }
-            }
-        }
-        writeCloseTag(tag);
+    public void setPoolStrings(boolean poolStrings){
+        vmGenerator.setPoolStrings(poolStrings);
     }
 
-    private boolean typeKeywordCheck(){
-        return currentTokenType == TokenType.KEYWORD && typeKeywords.contains(tokenizer.keyword());
+    /**
+     * @return the distinct literals pooled in the class compiled since the last init
+     */
+    public int getPooledStrings(){
+        return vmGenerator.getPooledStrings();
     }
-    private void compileType() throws IOException {
-        if (typeKeywordCheck()){
-            eatTerminalKeyword(tokenizer.keyword());
-        } else if (currentTokenType == TokenType.IDENTIFIER){
-            eatTerminalIdentifier();
-        } else {
-            throw new IllegalArgumentException("Unexpected token on line " + tokenizer.getLineNumber());
-        }
+
+    /**
+     * @return the literal uses reading from the pool in the class compiled since the last init
+     */
+    public int getPooledStringUses(){
+        return vmGenerator.getPooledStringUses();
     }
 
-    private void handleVariableInTables(String varName, varOp op) throws IOException {
-        Segment segment = null;
-        int index;
-        if (subroutineLevelSymbols.contains(varName)){
-            segment = getSegment(varName, subroutineLevelSymbols);
-            index = subroutineLevelSymbols.indexOf(varName);
+    /**
+     * Closes the files opened by init(fileName, ...), caller supplied outputs are only flushed
+     * @throws IOException if an output encounters an error
+     */
+    public void close() throws IOException {
+        if (ownsOutputs) {
+            xmlWriter.close();
+            vmWriter.close();
         } else {
-            segment = getSegment(varName, classLevelSymbols);
-            index = classLevelSymbols.indexOf(varName);
-        }
-
-        assert segment != null;
-        switch(op) {
-            case PUSH -> vmWriter.writePush(segment, index);
-            case POP -> vmWriter.writePop(segment, index); // write pop to requisite address
+            xmlWriter.flush();
+            vmWriter.flush();
         }
     }
-
-    private Segment getSegment(String varName, SymbolTable table){
-        SymbolTable.kind varKind = table.kindOf(varName);
-        switch (varKind){
-            case VAR -> {
-                return Segment.LOCAL;
-            }
-            case ARG -> {
-                return Segment.ARGUMENT;
-            }
-            case STATIC -> {
-                return Segment.STATIC;
-            }
-            case FIELD -> {
-                return Segment.THIS;
-            }
-            default -> {
-                throw new IllegalArgumentException(varName + " not found in table");
+    /**
+     * Parses the class, then writes its parse tree xml and VM code from the tree
+     * @throws IOException if an output encounters an error
+     */
+    public void compileClass() throws IOException {
+        // the whole file is already lexed
+        if (tokenXMLWriter != null){
+            tokenizer.writeTokenXML(tokenXMLWriter);
+        } else if (tokenXMLFileName != null && outputMode.tokenXML()){
+            try (Writer writer = new BufferedWriter(new FileWriter(tokenXMLFileName))) {
+                tokenizer.writeTokenXML(writer);
             }
         }
-    }
-
-    private void handleStringConstant(String string) throws IOException {
-        int stringLength = string.length();
-
-        // allocate space for String
-        vmWriter.writePush(Segment.CONSTANT, stringLength);  // get length of string
-        vmWriter.writeCall("String.new", 1);      // make string of that length, push to stack
-        // populate String
-        for (int i = 0; i < stringLength; i++){
-            char currentChar = string.charAt(i);
-            vmWriter.writePush(Segment.CONSTANT, currentChar);      // push character (as an integer)
-            vmWriter.writeCall("String.appendChar", 2);  // append to String, returning to stack
-        }                                                           // String is now on top of stack
-    }
 
-    private void handleIndependentMethodCall(String identifier) throws IOException {
-        vmWriter.writePush(Segment.POINTER, 0);
-        int nArgs = 1;                                // THIS has been pushed as ARG 0
-        eatTerminalSymbol('(');
-        nArgs += compileExpressionList();             // Add the rest of the args
-        eatTerminalSymbol(')');
-        vmWriter.writeCall(currentClass + "." + identifier, nArgs);
-    }
-    private void handleSubroutineCall(String identifier, int methodArgs) throws IOException {
-        eatTerminalSymbol('.');
-        if (methodArgs == 1){
-            // Change the identifier to the type of the object
-            if (classLevelSymbols.contains(identifier)){
-                identifier = classLevelSymbols.typeOf(identifier);
-            } else {
-                identifier = subroutineLevelSymbols.typeOf(identifier);
-            }
+        Ast.Class tree = new JackParser(tokenizer).parseClass();
+        if (writeParseXML){
+            tree.accept(new XMLGenerator(xmlWriter));
         }
-        String subroutineName = identifier + "." + tokenizer.identifier();
-        eatTerminalIdentifier();
-        eatTerminalSymbol('(');
-        int nArgs = methodArgs + compileExpressionList();
-        eatTerminalSymbol(')');
-        vmWriter.writeCall(subroutineName, nArgs);
+        tree.accept(vmGenerator);
     }
 
 }
@@ -0,0 +1,235 @@
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compiler daemon listening on a Unix domain socket, so a build that runs the compiler many times only pays for JVM
+ * startup once. Each connection carries one request:
+ *
+ *   compile \t inputDirectory \t outputDirectory \t options \t file (\t file)*
+ *   shutdown
+ *
+ * The options are CompilerDriver.getOptions joined by spaces. The server answers with one line per file followed by
+ * "OK" or "FAILED n". Files are compiled in memory and the outputs kept, keyed by the hash of the source, options and
+ * class name, so compiling an unchanged file again only writes the cached outputs back out.
+ */
+public class CompileServer {
+
+    private static final int CACHE_ENTRIES = 1024;
+
+    private final Path socketPath;
+    private final long idleTimeoutMillis;
+    private final ExecutorService workers;
+    private final ThreadLocal<CompilationEngine> engines = ThreadLocal.withInitial(() -> {
+        try {
+            CompilationEngine engine = new CompilationEngine();
+            engine.setConsole(null);
+            return engine;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    });
+
+    // least recently used compiled outputs, by file suffix
+    private final Map<String, Map<String, byte[]>> results = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Map<String, byte[]>> eldest) {
+            return size() > CACHE_ENTRIES;
+        }
+    };
+
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private volatile long lastActivity = System.currentTimeMillis();
+    private ServerSocketChannel server;
+
+    /**
+     * @param socketPath where to create the socket file
+     * @param idleTimeoutMillis how long to wait without requests before shutting down
+     * @param threads the number of requests handled at once
+     */
+    public CompileServer(Path socketPath, long idleTimeoutMillis, int threads) {
+        this.socketPath = socketPath;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.workers = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Accepts requests until shut down or idle for longer than the timeout
+     * @throws IOException if the socket can't be created
+     */
+    public void run() throws IOException {
+        Files.deleteIfExists(socketPath); // left behind by a server that didn't shut down cleanly
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socketPath));
+        System.out.println("Compile server listening on " + socketPath);
+
+        ScheduledExecutorService idleCheck = Executors.newSingleThreadScheduledExecutor();
+        idleCheck.scheduleAtFixedRate(() -> {
+            if (activeRequests.get() == 0 && System.currentTimeMillis() - lastActivity > idleTimeoutMillis) {
+                System.out.println("Idle for " + idleTimeoutMillis + "ms, shutting down");
+                shutdown();
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+
+        try {
+            while (server.isOpen()) {
+                SocketChannel client = server.accept();
+                activeRequests.incrementAndGet();
+                lastActivity = System.currentTimeMillis();
+                workers.execute(() -> handle(client));
+            }
+        } catch (ClosedChannelException ignored) {
+            // shutdown() closed the channel
+        } finally {
+            idleCheck.shutdownNow();
+            workers.shutdown();
+            Files.deleteIfExists(socketPath);
+        }
+    }
+
+    private void shutdown() {
+        try {
+            server.close();
+        } catch (IOException e) {
+            System.err.println("Could not close " + socketPath + ": " + e.getMessage());
+        }
+    }
+
+    private void handle(SocketChannel client) {
+        try (client;
+             BufferedReader in = new BufferedReader(Channels.newReader(client, StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(Channels.newWriter(client, StandardCharsets.UTF_8))) {
+            String request = in.readLine();
+            if (request == null) {
+                return;
+            }
+            String[] fields = request.split("\t");
+            switch (fields[0]) {
+                case "compile" -> {
+                    if (fields.length < 4) {
+                        out.println("FAILED bad request");
+                        break;
+                    }
+                    CompilerDriver options = new CompilerDriver(fields[1], fields[2], 1);
+                    try {
+                        options.setOptions(fields[3].isEmpty() ? List.of() : List.of(fields[3].split(" ")));
+                    } catch (IllegalArgumentException e) {
+                        out.println("FAILED bad options: " + e.getMessage());
+                        break;
+                    }
+                    int failures = 0;
+                    for (int i = 4; i < fields.length; i++) {
+                        if (!compile(fields[i], fields[1], fields[2], options, out)) {
+                            failures++;
+                        }
+                    }
+                    out.println(failures == 0 ? "OK" : "FAILED " + failures);
+                }
+                case "shutdown" -> {
+                    out.println("OK");
+                    shutdown();
+                }
+                default -> out.println("FAILED unknown request " + fields[0]);
+            }
+        } catch (IOException e) {
+            System.err.println("Request failed: " + e.getMessage());
+        } finally {
+            lastActivity = System.currentTimeMillis();
+            activeRequests.decrementAndGet();
+        }
+    }
+
+    /**
+     * Compiles one file, or writes its cached outputs if the same source was compiled with the same options before
+     * @return true if the file compiled
+     */
+    private boolean compile(String fileName, String inputDirectory, String outputDirectory, CompilerDriver options,
+                            PrintWriter out) {
+        long start = System.nanoTime();
+        String output = fileName.replace(inputDirectory, outputDirectory);
+        try {
+            byte[] source = Files.readAllBytes(Path.of(fileName));
+            String className = Path.of(fileName).getFileName().toString().replace(".jack", "");
+            // the assembly names statics and labels after the class, so the same source under another name differs
+            String hash = BuildCache.hash(source, options.fingerprint() + " " + className);
+            Map<String, byte[]> compiled;
+            synchronized (results) {
+                compiled = results.get(hash);
+            }
+            boolean cached = compiled != null;
+            if (!cached) {
+                // compiled in memory, so concurrent requests for the same file can't read each other's outputs
+                CompilationEngine engine = engines.get();
+                options.configure(engine);
+                compiled = new LinkedHashMap<>();
+                for (Map.Entry<String, String> file
+                        : options.compile(engine, className, SourceBuffer.of(ByteBuffer.wrap(source))).entrySet()) {
+                    compiled.put(file.getKey(), file.getValue().getBytes());
+                }
+                synchronized (results) {
+                    results.put(hash, compiled);
+                }
+            }
+            for (Map.Entry<String, byte[]> file : compiled.entrySet()) {
+                Files.write(Path.of(output.replace(".jack", file.getKey())), file.getValue());
+            }
+            out.printf("%s %s in %.2fms%n", fileName, cached ? "cached" : "compiled", (System.nanoTime() - start) / 1e6);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            out.println(fileName + " failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Client side: sends a compile request to a running server and prints its answer
+     * @param socketPath the socket the server is listening on
+     * @param inputDirectory The directory containing the files to translate
+     * @param outputDirectory The output directory for the translated files
+     * @param options the per file options, see CompilerDriver.getOptions
+     * @param files the .jack files to compile
+     * @return true if every file compiled
+     * @throws IOException if the server can't be reached
+     */
+    public static boolean forward(Path socketPath, String inputDirectory, String outputDirectory,
+                                  List<String> options, File[] files) throws IOException {
+        // the server has its own working directory, so send absolute paths
+        String absoluteInput = new File(inputDirectory).getAbsolutePath();
+        String absoluteOutput = new File(outputDirectory).getAbsolutePath();
+        StringBuilder request = new StringBuilder("compile\t" + absoluteInput + "\t" + absoluteOutput + "\t"
+                + String.join(" ", options));
+        for (File f : files) {
+            request.append('\t').append(f.getAbsolutePath());
+        }
+
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socketPath));
+             BufferedReader in = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(Channels.newWriter(channel, StandardCharsets.UTF_8))) {
+            out.println(request);
+            out.flush();
+            String line;
+            String last = null;
+            while ((line = in.readLine()) != null) {
+                System.out.println(line);
+                last = line;
+            }
+            return "OK".equals(last);
+        }
+    }
+}
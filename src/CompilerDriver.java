@@ -0,0 +1,461 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compiles a set of .jack files on a fixed size worker pool. Every class compiles independently, so each worker
+ * thread keeps its own CompilationEngine. Console output is buffered per file and printed in input order.
+ */
+public class CompilerDriver {
+
+    // bump whenever the generated output changes so incremental builds don't reuse stale files
+    public static final String VERSION = "1.1";
+
+    private final String inputDirectory;
+    private final String outputDirectory;
+    private final int threads;
+    private boolean incremental = false;
+    private boolean quiet = false;
+    private OutputMode outputMode = OutputMode.ALL;
+    private EnumSet<PeepholeOptimizer.Rule> peepholeRules = null;
+    private boolean foldConstants = false;
+    private boolean strengthReduction = false;
+    private int multiplyBudget = 24;
+    private boolean poolStrings = false;
+    private List<String> roots = null; // set for whole program builds
+    private int inlineThreshold = 0;
+    private boolean reuseLocals = false;
+    private boolean symbolTables = true;
+    private boolean writeAsm = false;
+    private boolean fuseAsm = false;
+    private BuildCache cache = null;
+
+    /**
+     * @param inputDirectory The directory containing the files to translate
+     * @param outputDirectory The output directory for the translated files
+     * @param threads the number of files to compile at once
+     */
+    public CompilerDriver(String inputDirectory, String outputDirectory, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1, received: " + threads);
+        }
+        this.inputDirectory = inputDirectory;
+        this.outputDirectory = outputDirectory;
+        this.threads = threads;
+    }
+
+    /**
+     * Only compile files whose contents, compiler version or options changed since the last incremental build
+     */
+    public void setIncremental(){
+        incremental = true;
+    }
+
+    /**
+     * @param outputMode which xml files to write next to the .vm files, all of them by default
+     */
+    public void setOutputMode(OutputMode outputMode){
+        this.outputMode = outputMode;
+    }
+
+    /**
+     * Runs the peephole optimizer over the generated code and prints how many instructions it saved per class
+     * @param rules the rules to run
+     */
+    public void setOptimize(EnumSet<PeepholeOptimizer.Rule> rules){
+        peepholeRules = rules;
+    }
+
+    /**
+     * Folds constant expressions at compile time and prints how many were folded per class
+     */
+    public void setFoldConstants(){
+        foldConstants = true;
+    }
+
+    /**
+     * Replaces Math.multiply and Math.divide calls that have a constant operand by inline code and prints how many
+     * were replaced per class
+     */
+    public void setStrengthReduction(){
+        strengthReduction = true;
+    }
+
+    /**
+     * @param multiplyBudget the most instructions a multiplication by a constant is replaced with, 0 to always call
+     *                       Math.multiply and Math.divide even with strength reduction on
+     */
+    public void setMultiplyBudget(int multiplyBudget){
+        this.multiplyBudget = multiplyBudget;
+    }
+
+    /**
+     * Builds every string literal once per class and reuses it, see CompilationEngine.setPoolStrings
+     */
+    public void setPoolStrings(){
+        poolStrings = true;
+    }
+
+    /**
+     * Treats the files as the whole program and removes every function its roots can't reach once all of them are
+     * compiled. Can't be combined with incremental builds, an unchanged file may need a function that was removed.
+     * @param roots the functions the program starts in, usually Main.main
+     */
+    public void setWholeProgram(List<String> roots){
+        this.roots = roots;
+    }
+
+    /**
+     * Inlines calls to small leaf functions across classes once every file is compiled, see CallGraph.inline
+     * @param inlineThreshold the most instructions an inlined function may have, 0 turns inlining off
+     */
+    public void setInlineThreshold(int inlineThreshold){
+        this.inlineThreshold = inlineThreshold;
+    }
+
+    /**
+     * Shares local slots between variables with disjoint lifetimes and prints how many locals were saved per class
+     */
+    public void setReuseLocals(){
+        reuseLocals = true;
+    }
+
+    /**
+     * Leaves the symbol table comments out of the .vm files
+     */
+    public void setNoSymbolTables(){
+        symbolTables = false;
+    }
+
+    /**
+     * Also writes every class as Hack assembly, see HackWriter. The whole program passes rewrite the .vm files
+     * afterwards, so they can't be combined with it.
+     * @param fuse true for fused assembly, false for the plain translation of every VM command
+     */
+    public void setAsm(boolean fuse){
+        writeAsm = true;
+        fuseAsm = fuse;
+    }
+
+    /**
+     * Turns off the per token debug output, only the file names are printed
+     */
+    public void setQuiet(){
+        quiet = true;
+    }
+
+    /**
+     * The options that apply to each file on its own, as command line flags, so they can be sent to a compile server
+     * and read back with setOptions. Whole program and incremental builds aren't included.
+     */
+    public List<String> getOptions(){
+        List<String> options = new ArrayList<>(List.of("--output", outputMode.name(),
+                "--multiply-budget", Integer.toString(multiplyBudget)));
+        if (strengthReduction) {
+            options.add("--strength-reduction");
+        }
+        if (peepholeRules != null) {
+            StringJoiner rules = new StringJoiner(",");
+            peepholeRules.forEach(rule -> rules.add(rule.name()));
+            options.addAll(List.of("--optimize-rules", rules.toString()));
+        }
+        if (foldConstants) {
+            options.add("--fold-constants");
+        }
+        if (poolStrings) {
+            options.add("--pool-strings");
+        }
+        if (reuseLocals) {
+            options.add("--reuse-locals");
+        }
+        if (!symbolTables) {
+            options.add("--no-symbol-tables");
+        }
+        if (writeAsm) {
+            options.add(fuseAsm ? "--asm" : "--asm-plain");
+        }
+        return options;
+    }
+
+    /**
+     * Reads back the options written by getOptions
+     * @throws IllegalArgumentException for anything getOptions doesn't write
+     */
+    public void setOptions(List<String> options){
+        for (int i = 0; i < options.size(); i++){
+            switch (options.get(i)){
+                case "--output" -> setOutputMode(OutputMode.valueOf(options.get(++i)));
+                case "--strength-reduction" -> setStrengthReduction();
+                case "--multiply-budget" -> setMultiplyBudget(Integer.parseInt(options.get(++i)));
+                case "--optimize-rules" -> setOptimize(PeepholeOptimizer.parseRules(options.get(++i)));
+                case "--fold-constants" -> setFoldConstants();
+                case "--pool-strings" -> setPoolStrings();
+                case "--reuse-locals" -> setReuseLocals();
+                case "--no-symbol-tables" -> setNoSymbolTables();
+                case "--asm" -> setAsm(true);
+                case "--asm-plain" -> setAsm(false);
+                default -> throw new IllegalArgumentException("Unknown compile option: " + options.get(i));
+            }
+        }
+    }
+
+    /**
+     * @return everything besides the source that affects the generated files
+     */
+    public String fingerprint(){
+        return VERSION + " " + outputMode + (peepholeRules == null ? "" : " " + peepholeRules)
+                + (foldConstants ? " fold" : "") + (strengthReduction ? " multiply " + multiplyBudget : "")
+                + (poolStrings ? " pool" : "") + (reuseLocals ? " locals" : "") + (symbolTables ? "" : " no-tables")
+                + (writeAsm ? (fuseAsm ? " asm" : " asm-plain") : "");
+    }
+
+    /**
+     * Compiles every file, reporting all failures together once every file has been attempted
+     * @param files the .jack files to compile
+     * @throws IOException if any file fails to compile
+     */
+    public void compile(File[] files) throws IOException {
+        if (files.length == 0) {
+            return;
+        }
+        if (incremental && (roots != null || inlineThreshold > 0)) {
+            throw new IllegalArgumentException("Whole program builds can't be incremental");
+        }
+        if (writeAsm && (roots != null || inlineThreshold > 0)) {
+            throw new IllegalArgumentException("Whole program builds can't write assembly");
+        }
+        if (incremental) {
+            Path output = Path.of(files[0].getPath().replace(inputDirectory, outputDirectory)).toAbsolutePath();
+            cache = new BuildCache(output.getParent(), fingerprint());
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, files.length)));
+        ThreadLocal<CompilationEngine> engines = ThreadLocal.withInitial(() -> {
+            try {
+                return new CompilationEngine();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+
+        List<Future<String>> results = new ArrayList<>();
+        for (File f:files){
+            results.add(pool.submit(() -> compileFile(engines.get(), f.getPath())));
+        }
+        pool.shutdown();
+
+        List<String> failures = new ArrayList<>();
+        List<Throwable> causes = new ArrayList<>();
+        for (int i = 0; i < files.length; i++){
+            try {
+                System.out.print(results.get(i).get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while compiling " + files[i].getPath());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof CompileFailure failure) {
+                    System.out.print(failure.log);
+                    cause = failure.getCause();
+                }
+                failures.add(files[i].getPath() + ": " + cause);
+                causes.add(cause);
+            }
+        }
+
+        if (cache != null) {
+            cache.save();
+        }
+
+        if (!failures.isEmpty()) {
+            String message = failures.size() + " of " + files.length + " files failed to compile";
+            System.err.println(message + ":");
+            for (String failure:failures){
+                System.err.println("    " + failure);
+            }
+            IOException error = new IOException(message, causes.get(0));
+            for (int i = 1; i < causes.size(); i++){
+                error.addSuppressed(causes.get(i));
+            }
+            throw error;
+        }
+
+        if (roots != null || inlineThreshold > 0) {
+            optimizeWholeProgram(files);
+        }
+    }
+
+    /**
+     * Inlines small functions, then removes the functions nothing reaches any more
+     */
+    private void optimizeWholeProgram(File[] files) throws IOException {
+        CallGraph graph = new CallGraph();
+        for (File f:files){
+            graph.add(Path.of(f.getPath().replace(inputDirectory, outputDirectory).replace(".jack", ".vm")));
+        }
+        if (inlineThreshold > 0) {
+            System.out.println("Inlined " + graph.inline(inlineThreshold) + " calls");
+        }
+        if (roots != null) {
+            List<String> removed = graph.prune(roots);
+            System.out.println("Removed " + removed.size() + " unreachable functions");
+            for (String function:removed){
+                System.out.println("    " + function);
+            }
+        }
+        graph.save();
+    }
+
+    /**
+     * Sets the engine up to compile with these options, engines of watch mode and the compile server included
+     */
+    public void configure(CompilationEngine engine){
+        engine.setOutputMode(outputMode);
+        engine.setFoldConstants(foldConstants);
+        engine.setStrengthReduction(strengthReduction && multiplyBudget > 0);
+        engine.setMultiplyBudget(multiplyBudget);
+        engine.setPoolStrings(poolStrings);
+        engine.setWriteSymbolTables(symbolTables);
+        engine.setAsm(writeAsm, fuseAsm);
+        if (reuseLocals != (engine.getLocalAllocator() != null)) {
+            engine.setReuseLocals(reuseLocals);
+        }
+        if (peepholeRules == null) {
+            engine.setOptimizer(null);
+        } else if (engine.getOptimizer() == null || !engine.getOptimizer().getRules().equals(peepholeRules)) {
+            engine.setOptimizer(new PeepholeOptimizer(peepholeRules));
+        }
+    }
+
+    /**
+     * Compiles one class in memory with these options, nothing is read from or written to disk
+     * @param engine an engine set up by configure
+     * @param className the name of the class, the assembly's labels are named after it
+     * @param source the Jack class
+     * @return the text of every file this build writes for the class, by file suffix: .vm, .xml, T.xml and .asm
+     * @throws IOException never in practice, the outputs are in memory
+     */
+    public Map<String, String> compile(CompilationEngine engine, String className, SourceBuffer source)
+            throws IOException {
+        StringWriter vm = new StringWriter();
+        StringWriter xml = outputMode.parseXML() ? new StringWriter() : null;
+        StringWriter tokenXML = outputMode.tokenXML() ? new StringWriter() : null;
+        StringWriter asm = writeAsm ? new StringWriter() : null;
+        engine.init(source, vm, xml, tokenXML);
+        if (asm != null) {
+            engine.setAsmOutput(asm, className);
+        }
+        engine.compileClass();
+        engine.close();
+
+        Map<String, String> outputs = new LinkedHashMap<>();
+        outputs.put(".vm", vm.toString());
+        if (xml != null) {
+            outputs.put(".xml", xml.toString());
+        }
+        if (tokenXML != null) {
+            outputs.put("T.xml", tokenXML.toString());
+        }
+        if (asm != null) {
+            outputs.put(".asm", asm.toString());
+        }
+        return outputs;
+    }
+
+    /**
+     * Compiles a single file with the given engine
+     * @return everything the engine printed while compiling
+     */
+    private String compileFile(CompilationEngine engine, String fileName) throws CompileFailure {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        PrintStream console = new PrintStream(log, false);
+        console.println(fileName);
+        String name = new File(fileName).getName();
+        String hash = null;
+        try {
+            if (cache != null) {
+                hash = cache.hash(Path.of(fileName));
+                if (cache.isUpToDate(name, hash) && outputsExist(fileName)) {
+                    return fileName + " (unchanged)\n";
+                }
+                cache.remove(name); // only recorded again once it compiles
+            }
+            engine.setConsole(quiet ? null : console);
+            configure(engine);
+            engine.init(fileName, inputDirectory, outputDirectory);
+            try {
+                engine.compileClass();
+            } finally {
+                engine.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            console.flush();
+            throw new CompileFailure(log.toString(), e);
+        }
+        if (cache != null) {
+            cache.record(name, hash);
+        }
+        if (engine.getReducedCalls() > 0) {
+            console.printf("%s: %d Math.multiply/divide calls inlined%n", name, engine.getReducedCalls());
+        }
+        if (poolStrings && engine.getPooledStrings() > 0) {
+            console.printf("%s: %d string literals pooled, %d uses%n", name,
+                    engine.getPooledStrings(), engine.getPooledStringUses());
+        }
+        if (foldConstants) {
+            console.printf("%s: %d constant expressions folded, %d identities simplified%n", name,
+                    engine.getFoldedExpressions(), engine.getSimplifiedExpressions());
+        }
+        if (writeAsm) {
+            console.printf("%s: %d Hack instructions%n", name, engine.getAsmInstructions());
+        }
+        LocalAllocator localAllocator = engine.getLocalAllocator();
+        if (localAllocator != null) {
+            console.printf("%s: %d -> %d locals%n", name, localAllocator.getLocalsBefore(),
+                    localAllocator.getLocalsAfter());
+        }
+        PeepholeOptimizer optimizer = engine.getOptimizer();
+        if (optimizer != null) {
+            int before = optimizer.getInstructionsBefore();
+            int after = optimizer.getInstructionsAfter();
+            console.printf("%s: %d -> %d VM instructions (-%.1f%%)%n", name, before, after,
+                    before == 0 ? 0.0 : 100.0 * (before - after) / before);
+        }
+        console.flush();
+        return log.toString();
+    }
+
+    private boolean outputsExist(String fileName){
+        String output = fileName.replace(inputDirectory, outputDirectory);
+        if (!Files.exists(Path.of(output.replace(".jack", ".vm")))){
+            return false;
+        }
+        if (writeAsm && !Files.exists(Path.of(output.replace(".jack", ".asm")))){
+            return false;
+        }
+        if (outputMode.parseXML() && !Files.exists(Path.of(output.replace(".jack", ".xml")))){
+            return false;
+        }
+        return !outputMode.tokenXML() || Files.exists(Path.of(output.replace(".jack", "T.xml")));
+    }
+
+    // carries the console output of a failed file back to the printing thread
+    private static class CompileFailure extends Exception {
+        private static final long serialVersionUID = 1L;
+        private final String log;
+
+        CompileFailure(String log, Throwable cause) {
+            super(cause);
+            this.log = log;
+        }
+    }
+}
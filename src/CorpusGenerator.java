@@ -0,0 +1,379 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates Jack programs that compile, for scale and stress tests. The same seed and settings always give the same
+ * program, and each class is generated from its own Random, so a class only depends on the seed, the settings and
+ * its index.
+ * Every class has statics, fields, a constructor, functions and methods calling each other and the functions of
+ * other classes; Main.main calls every class. The code isn't meant to run, loops don't necessarily end.
+ */
+public class CorpusGenerator {
+
+    private static final char[] OPS = {'+', '-', '*', '/', '&', '|', '<', '>', '='};
+    private static final String[] INT_LOCALS = {"i", "j", "t"};
+    private static final String INDENT = "    ";
+
+    private final long seed;
+    private int classes = 20;
+    private int subroutines = 10; // per class, half functions and half methods
+    private int fields = 8;
+    private int statics = 4;
+    private int statements = 12; // per subroutine, nested ones included
+    private int depth = 3; // of nested if and while
+    private int expressionLength = 4; // terms in an expression
+    private int stringLength = 20;
+    private int arrayDepth = 2; // of a[a[...]] indexing
+
+    /**
+     * @param seed picks every name, constant and statement
+     */
+    public CorpusGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Settings for one kind of stress, see the cases for what each one pushes
+     * @param shape default, many-classes, wide, deep, expressions, strings or arrays
+     */
+    public static CorpusGenerator shape(String shape, long seed) {
+        CorpusGenerator generator = new CorpusGenerator(seed);
+        switch (shape) {
+            case "default" -> {
+            }
+            case "many-classes" -> {
+                generator.setClasses(2000);
+                generator.setSubroutines(4);
+                generator.setStatements(6);
+            }
+            case "wide" -> { // hundreds of fields and statics per class
+                generator.setClasses(10);
+                generator.setFields(400);
+                generator.setStatics(300);
+            }
+            case "deep" -> { // if and while nested 40 deep
+                generator.setClasses(10);
+                generator.setDepth(40);
+                generator.setStatements(60);
+            }
+            case "expressions" -> { // 200 terms per expression
+                generator.setClasses(10);
+                generator.setExpressionLength(200);
+            }
+            case "strings" -> { // 5000 character literals
+                generator.setClasses(10);
+                generator.setStringLength(5000);
+            }
+            case "arrays" -> { // a[a[...]] 30 deep
+                generator.setClasses(10);
+                generator.setArrayDepth(30);
+            }
+            default -> throw new IllegalArgumentException("Unknown corpus shape: " + shape);
+        }
+        return generator;
+    }
+
+    public void setClasses(int classes) {
+        this.classes = positive("classes", classes);
+    }
+
+    /**
+     * @param subroutines per class, half of them functions and half methods, at least 2
+     */
+    public void setSubroutines(int subroutines) {
+        this.subroutines = Math.max(positive("subroutines", subroutines), 2);
+    }
+
+    public void setFields(int fields) {
+        this.fields = positive("fields", fields);
+    }
+
+    public void setStatics(int statics) {
+        this.statics = positive("statics", statics);
+    }
+
+    /**
+     * @param statements per subroutine, nested ones included
+     */
+    public void setStatements(int statements) {
+        this.statements = positive("statements", statements);
+    }
+
+    /**
+     * @param depth how deep if and while statements nest
+     */
+    public void setDepth(int depth) {
+        this.depth = positive("depth", depth);
+    }
+
+    /**
+     * @param expressionLength terms in the longer expressions
+     */
+    public void setExpressionLength(int expressionLength) {
+        this.expressionLength = positive("expression length", expressionLength);
+    }
+
+    /**
+     * @param stringLength characters in each string literal
+     */
+    public void setStringLength(int stringLength) {
+        this.stringLength = positive("string length", stringLength);
+    }
+
+    /**
+     * @param arrayDepth how deep array indexes nest, 1 for a[i]
+     */
+    public void setArrayDepth(int arrayDepth) {
+        this.arrayDepth = positive("array depth", arrayDepth);
+    }
+
+    private static int positive(String setting, int value) {
+        if (value < 1) {
+            throw new IllegalArgumentException("Corpus " + setting + " must be at least 1, received: " + value);
+        }
+        return value;
+    }
+
+    /**
+     * @return the source of every class by class name, Main last
+     */
+    public Map<String, String> generate() {
+        Map<String, String> program = new LinkedHashMap<>();
+        for (int c = 0; c < classes; c++) {
+            program.put(className(c), generateClass(c));
+        }
+        program.put("Main", generateMain());
+        return program;
+    }
+
+    /**
+     * Writes every class to directory/ClassName.jack
+     * @return the bytes written
+     * @throws IOException if a file can't be written
+     */
+    public long write(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        long bytes = 0;
+        for (Map.Entry<String, String> source : generate().entrySet()) {
+            Files.writeString(directory.resolve(source.getKey() + ".jack"), source.getValue());
+            bytes += source.getValue().length();
+        }
+        return bytes;
+    }
+
+    private static String className(int c) {
+        return "C" + c;
+    }
+
+    private int functionCount() {
+        return subroutines / 2;
+    }
+
+    private int methodCount() {
+        return subroutines - functionCount();
+    }
+
+    private String generateMain() {
+        StringBuilder source = new StringBuilder("class Main {\n");
+        source.append(INDENT).append("function void main() {\n");
+        source.append(INDENT.repeat(2)).append("var int t;\n");
+        for (int c = 0; c < classes; c++) {
+            String name = className(c);
+            source.append(INDENT.repeat(2)).append("var ").append(name).append(" o").append(c).append(";\n");
+        }
+        for (int c = 0; c < classes; c++) {
+            String name = className(c);
+            source.append(INDENT.repeat(2)).append("let o").append(c).append(" = ").append(name).append(".new();\n");
+            source.append(INDENT.repeat(2)).append("let t = o").append(c).append(".m0(t, ").append(c).append(");\n");
+            source.append(INDENT.repeat(2)).append("let t = ").append(name).append(".g0(t, 1);\n");
+        }
+        source.append(INDENT.repeat(2)).append("return;\n");
+        source.append(INDENT).append("}\n}\n");
+        return source.toString();
+    }
+
+    private String generateClass(int c) {
+        return new ClassWriter(c, new Random(seed * 31 + c)).write();
+    }
+
+    /**
+     * Writes one class. Kept apart so generating a class only needs the class's own Random.
+     */
+    private class ClassWriter {
+        private final int index;
+        private final Random random;
+        private final StringBuilder source = new StringBuilder();
+        private boolean inMethod;
+        private int budget; // statements left in the current subroutine
+
+        ClassWriter(int index, Random random) {
+            this.index = index;
+            this.random = random;
+        }
+
+        String write() {
+            source.append("class ").append(className(index)).append(" {\n");
+            declare("static", "s", statics);
+            declare("field", "f", fields);
+            source.append(INDENT).append("static Array table;\n\n");
+
+            source.append(INDENT).append("constructor ").append(className(index)).append(" new() {\n");
+            for (int f = 0; f < Math.min(fields, 8); f++) {
+                line(2, "let f" + f + " = " + random.nextInt(100) + ";");
+            }
+            line(2, "return this;");
+            source.append(INDENT).append("}\n\n");
+
+            for (int g = 0; g < functionCount(); g++) {
+                subroutine("function", "g" + g, false);
+            }
+            for (int m = 0; m < methodCount(); m++) {
+                subroutine("method", "m" + m, true);
+            }
+            return source.append("}\n").toString();
+        }
+
+        private void declare(String kind, String prefix, int count) {
+            // a few declarations per line, like hand written code
+            for (int start = 0; start < count; start += 10) {
+                source.append(INDENT).append(kind).append(" int ");
+                for (int i = start; i < Math.min(start + 10, count); i++) {
+                    source.append(i > start ? ", " : "").append(prefix).append(i);
+                }
+                source.append(";\n");
+            }
+        }
+
+        private void subroutine(String kind, String name, boolean method) {
+            inMethod = method;
+            budget = statements;
+            source.append(INDENT).append(kind).append(" int ").append(name).append("(int a, int b) {\n");
+            line(2, "var int i, j, t;");
+            line(2, "var Array arr;");
+            line(2, "var String str;");
+            line(2, "let arr = Array.new(" + (16 + random.nextInt(64)) + ");");
+            // one statement nests all the way down, the rest are spread over the levels
+            nested(2, depth);
+            while (budget > 0) {
+                statement(2, random.nextInt(depth) + 1);
+            }
+            line(2, "return " + expression(Math.min(expressionLength, 3)) + ";");
+            source.append(INDENT).append("}\n\n");
+        }
+
+        private void nested(int indent, int levels) {
+            budget--;
+            if (levels == 0) {
+                simpleStatement(indent);
+                return;
+            }
+            boolean loop = random.nextBoolean();
+            line(indent, (loop ? "while (" : "if (") + condition() + ") {");
+            nested(indent + 1, levels - 1);
+            if (loop) {
+                line(indent + 1, "let i = i + 1;");
+            }
+            if (!loop && random.nextBoolean()) {
+                line(indent, "} else {");
+                simpleStatement(indent + 1);
+            }
+            line(indent, "}");
+        }
+
+        private void statement(int indent, int levels) {
+            if (levels > 1 && random.nextInt(3) == 0) {
+                nested(indent, Math.min(levels, 1 + random.nextInt(levels)));
+            } else {
+                budget--;
+                simpleStatement(indent);
+            }
+        }
+
+        private void simpleStatement(int indent) {
+            switch (random.nextInt(7)) {
+                case 0 -> line(indent, "let " + scalar() + " = " + expression(expressionLength) + ";");
+                case 1 -> line(indent, "let arr[" + expression(2) + "] = " + expression(expressionLength) + ";");
+                case 2 -> line(indent, "let t = " + arrayElement(arrayDepth) + ";");
+                case 3 -> line(indent, "let str = " + stringLiteral() + ";");
+                case 4 -> line(indent, "do Output.printString(str);");
+                case 5 -> line(indent, "let t = " + call() + ";");
+                default -> line(indent, "let " + INT_LOCALS[random.nextInt(INT_LOCALS.length)] + " = "
+                        + expression(expressionLength) + ";");
+            }
+        }
+
+        /**
+         * @return a variable an int can be assigned to
+         */
+        private String scalar() {
+            return switch (random.nextInt(inMethod ? 4 : 3)) {
+                case 0 -> "s" + random.nextInt(statics);
+                case 1 -> INT_LOCALS[random.nextInt(INT_LOCALS.length)];
+                case 2 -> "a";
+                default -> "f" + random.nextInt(fields);
+            };
+        }
+
+        private String condition() {
+            return "(" + scalar() + " " + "<>=".charAt(random.nextInt(3)) + " " + term(0) + ")";
+        }
+
+        private String expression(int terms) {
+            StringBuilder expression = new StringBuilder(term(0));
+            for (int i = 1; i < terms; i++) {
+                expression.append(' ').append(OPS[random.nextInt(OPS.length)]).append(' ').append(term(0));
+            }
+            return expression.toString();
+        }
+
+        /**
+         * @param nesting how deep in parentheses this term is, so terms stay finite
+         */
+        private String term(int nesting) {
+            int kind = random.nextInt(nesting < 2 ? 8 : 4);
+            return switch (kind) {
+                case 0 -> Integer.toString(random.nextInt(32768));
+                case 1, 2 -> scalar();
+                case 3 -> random.nextBoolean() ? "b" : "true";
+                case 4 -> "(" + term(nesting + 1) + " " + OPS[random.nextInt(OPS.length)] + " " + term(nesting + 1) + ")";
+                case 5 -> (random.nextBoolean() ? "-" : "~") + term(nesting + 1);
+                case 6 -> arrayElement(Math.min(arrayDepth, 2));
+                default -> call();
+            };
+        }
+
+        private String arrayElement(int levels) {
+            String index = INT_LOCALS[random.nextInt(INT_LOCALS.length)];
+            for (int i = 0; i < levels; i++) {
+                index = (i == levels - 1 && random.nextBoolean() ? "table" : "arr") + "[" + index + "]";
+            }
+            return index;
+        }
+
+        private String call() {
+            int target = random.nextInt(classes);
+            int function = random.nextInt(functionCount());
+            if (inMethod && random.nextBoolean()) {
+                return "m" + random.nextInt(methodCount()) + "(" + term(2) + ", " + term(2) + ")";
+            }
+            return className(target) + ".g" + function + "(" + term(2) + ", " + term(2) + ")";
+        }
+
+        private String stringLiteral() {
+            StringBuilder literal = new StringBuilder("\"");
+            for (int i = 0; i < stringLength; i++) {
+                char c = (char) ('!' + random.nextInt(94)); // printable, no double quote since Jack has no escapes
+                literal.append(c == '"' ? ' ' : c);
+            }
+            return literal.append('"').toString();
+        }
+
+        private void line(int indent, String text) {
+            source.append(INDENT.repeat(indent)).append(text).append('\n');
+        }
+    }
+}
@@ -0,0 +1,306 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A Hack CPU that runs the .asm files HackWriter writes for each class. Loading links the classes behind the runtime
+ * and adds a stub for every OS function the program doesn't define. Reaching a stub traps into JackOS, which works
+ * on the same RAM, then returns the way a VM function does. Counts cycles, one per Hack instruction, and OS calls.
+ */
+public class HackComputer {
+
+    private static final int ROM_SIZE = 32768;
+    private static final int SP = 0;
+    private static final int LCL = 1;
+    private static final int ARG = 2;
+    private static final int THIS = 3;
+    private static final int THAT = 4;
+
+    private static final HashMap<String, Integer> COMPUTATIONS = new HashMap<>(); // comp -> a bit and c bits
+    private static final HashMap<String, Integer> PREDEFINED = new HashMap<>();
+    private static final String[] JUMPS = {"", "JGT", "JEQ", "JGE", "JLT", "JNE", "JLE", "JMP"};
+
+    static {
+        String[][] computations = {
+                {"0", "101010"}, {"1", "111111"}, {"-1", "111010"}, {"D", "001100"}, {"A", "110000"},
+                {"!D", "001101"}, {"!A", "110001"}, {"-D", "001111"}, {"-A", "110011"}, {"D+1", "011111"},
+                {"A+1", "110111"}, {"D-1", "001110"}, {"A-1", "110010"}, {"D+A", "000010"}, {"A+D", "000010"},
+                {"D-A", "010011"}, {"A-D", "000111"}, {"D&A", "000000"}, {"A&D", "000000"}, {"D|A", "010101"},
+                {"A|D", "010101"}
+        };
+        for (String[] computation : computations) {
+            int bits = Integer.parseInt(computation[1], 2);
+            COMPUTATIONS.put(computation[0], bits);
+            if (computation[0].contains("A")) {
+                COMPUTATIONS.put(computation[0].replace('A', 'M'), bits | 0x40);
+            }
+        }
+        for (int i = 0; i < 16; i++) {
+            PREDEFINED.put("R" + i, i);
+        }
+        String[] registers = {"SP", "LCL", "ARG", "THIS", "THAT"};
+        for (int i = 0; i < registers.length; i++) {
+            PREDEFINED.put(registers[i], i);
+        }
+        PREDEFINED.put("SCREEN", JackOS.SCREEN);
+        PREDEFINED.put("KBD", JackOS.KEYBOARD);
+    }
+
+    private final int[] ram = new int[32768];
+    private final JackOS os = new JackOS(ram);
+    private int[] rom;
+    private int firstTrap; // the stubs come last
+    private int[] traps; // JackOS id of each stub address from firstTrap on
+    private int halt;
+    private long maxCycles = Long.MAX_VALUE;
+    private long cycles = 0;
+    private final long[] osCalls = new long[JackOS.functionCount()];
+
+    /**
+     * Links an .asm file, or every .asm file of a directory, into a program
+     * @throws IOException if a file can't be read
+     */
+    public void load(File file) throws IOException {
+        File[] files = file.isDirectory() ? file.listFiles((dir, name) -> name.endsWith(".asm")) : new File[]{file};
+        if (files == null) {
+            throw new IOException("Can't list " + file);
+        }
+        Arrays.sort(files);
+        StringBuilder classes = new StringBuilder();
+        for (File asmFile : files) {
+            classes.append(Files.readString(asmFile.toPath()));
+        }
+        Set<String> labels = new HashSet<>();
+        for (String line : classes.toString().split("\n")) {
+            if (line.startsWith("(")) {
+                labels.add(line.substring(1, line.indexOf(')')));
+            }
+        }
+        StringBuilder program = new StringBuilder(HackWriter.runtime(labels.contains("Sys.init") ? "Sys.init" : "Main.main"));
+        program.append(classes);
+        List<Integer> stubs = new ArrayList<>();
+        for (int id = 0; id < JackOS.functionCount(); id++) {
+            if (!labels.contains(JackOS.name(id))) {
+                // on a real CPU the stub would spin, the OS has to be linked in instead
+                program.append("(").append(JackOS.name(id)).append(")\n@").append(JackOS.name(id)).append("\n0;JMP\n");
+                stubs.add(id);
+            }
+        }
+        HashMap<String, Integer> symbols = assemble(program.toString());
+        halt = symbols.get("$HALT");
+        firstTrap = stubs.isEmpty() ? rom.length : symbols.get(JackOS.name(stubs.get(0)));
+        traps = new int[rom.length - firstTrap];
+        Arrays.fill(traps, -1);
+        for (int id : stubs) {
+            traps[symbols.get(JackOS.name(id)) - firstTrap] = id;
+        }
+    }
+
+    /**
+     * Two passes: labels get the address of the next instruction, then every other symbol that isn't predefined
+     * becomes a variable from RAM[16] on, in order of first use
+     * @return every symbol's value
+     */
+    private HashMap<String, Integer> assemble(String program) {
+        List<String> instructions = new ArrayList<>();
+        HashMap<String, Integer> symbols = new HashMap<>(PREDEFINED);
+        for (String line : program.split("\n")) {
+            int comment = line.indexOf("//");
+            line = (comment < 0 ? line : line.substring(0, comment)).trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (line.startsWith("(")) {
+                symbols.put(line.substring(1, line.length() - 1), instructions.size());
+            } else {
+                instructions.add(line);
+            }
+        }
+        if (instructions.size() > ROM_SIZE) {
+            throw new IllegalArgumentException("Program doesn't fit in ROM: " + instructions.size() + " instructions");
+        }
+        rom = new int[instructions.size()];
+        int nextVariable = 16;
+        for (int i = 0; i < rom.length; i++) {
+            String instruction = instructions.get(i);
+            if (instruction.startsWith("@")) {
+                String value = instruction.substring(1);
+                if (Character.isDigit(value.charAt(0))) {
+                    rom[i] = Integer.parseInt(value);
+                } else {
+                    Integer address = symbols.get(value);
+                    if (address == null) {
+                        address = nextVariable++;
+                        symbols.put(value, address);
+                    }
+                    rom[i] = address;
+                }
+                if (rom[i] >= ROM_SIZE) {
+                    throw new IllegalArgumentException("Constant too large: " + instruction);
+                }
+            } else {
+                rom[i] = encode(instruction);
+            }
+        }
+        return symbols;
+    }
+
+    private static int encode(String instruction) {
+        int equals = instruction.indexOf('=');
+        int semicolon = instruction.indexOf(';');
+        String dest = equals < 0 ? "" : instruction.substring(0, equals);
+        String comp = instruction.substring(equals + 1, semicolon < 0 ? instruction.length() : semicolon);
+        String jump = semicolon < 0 ? "" : instruction.substring(semicolon + 1);
+        Integer computation = COMPUTATIONS.get(comp);
+        int jumpBits = Arrays.asList(JUMPS).indexOf(jump);
+        if (computation == null || jumpBits < 0 || !dest.matches("[AMD]*")) {
+            throw new IllegalArgumentException("Bad instruction: " + instruction);
+        }
+        int destBits = (dest.contains("A") ? 4 : 0) | (dest.contains("D") ? 2 : 0) | (dest.contains("M") ? 1 : 0);
+        return 0xE000 | computation << 6 | destBits << 3 | jumpBits;
+    }
+
+    /**
+     * @param input what the program reads from the keyboard
+     */
+    public void setInput(CharSequence input) {
+        os.setInput(input);
+    }
+
+    /**
+     * @param maxCycles cycles to run before giving up, for programs that never return
+     */
+    public void setMaxCycles(long maxCycles) {
+        this.maxCycles = maxCycles;
+    }
+
+    public int peek(int address) {
+        return ram[address];
+    }
+
+    public void poke(int address, int value) {
+        ram[address] = (short) value;
+    }
+
+    /**
+     * Runs from ROM[0] until the program reaches $HALT, halts through the OS or maxCycles have run
+     * @return false if the run was cut off by maxCycles
+     */
+    public boolean run() {
+        final int[] ram = this.ram;
+        final int[] rom = this.rom;
+        int pc = 0;
+        int a = 0;
+        int d = 0;
+        while (pc != halt) {
+            if (pc >= firstTrap) {
+                pc = trap(traps[pc - firstTrap]);
+                if (os.isHalted()) {
+                    return true;
+                }
+                continue;
+            }
+            if (cycles == maxCycles) {
+                return false;
+            }
+            cycles++;
+            int instruction = rom[pc];
+            if ((instruction & 0x8000) == 0) {
+                a = instruction;
+                pc++;
+                continue;
+            }
+            int y = (instruction & 0x1000) != 0 ? ram[a] : a;
+            int out = (short) switch ((instruction >> 6) & 0x3F) {
+                case 0x2A -> 0;
+                case 0x3F -> 1;
+                case 0x3A -> -1;
+                case 0x0C -> d;
+                case 0x30 -> y;
+                case 0x0D -> ~d;
+                case 0x31 -> ~y;
+                case 0x0F -> -d;
+                case 0x33 -> -y;
+                case 0x1F -> d + 1;
+                case 0x37 -> y + 1;
+                case 0x0E -> d - 1;
+                case 0x32 -> y - 1;
+                case 0x02 -> d + y;
+                case 0x13 -> d - y;
+                case 0x07 -> y - d;
+                case 0x00 -> d & y;
+                case 0x15 -> d | y;
+                default -> throw new IllegalStateException("Bad instruction " + instruction + " at " + pc);
+            };
+            int target = a;
+            if ((instruction & 0x08) != 0) {
+                ram[a] = out;
+            }
+            if ((instruction & 0x10) != 0) {
+                d = out;
+            }
+            if ((instruction & 0x20) != 0) {
+                a = out;
+            }
+            boolean jump = out < 0 ? (instruction & 4) != 0 : out == 0 ? (instruction & 2) != 0 : (instruction & 1) != 0;
+            pc = jump ? target : pc + 1;
+        }
+        return true;
+    }
+
+    /**
+     * Runs an OS function in place of its stub, then returns from it
+     * @return the return address
+     */
+    private int trap(int id) {
+        if (id < 0) {
+            throw new IllegalStateException("Ran into the OS stubs");
+        }
+        osCalls[id]++;
+        int args = ram[ARG];
+        int frame = ram[LCL];
+        int returnAddress = ram[frame - 5];
+        int result = os.call(id, args);
+        ram[args] = (short) result;
+        ram[SP] = args + 1;
+        ram[THAT] = ram[frame - 1];
+        ram[THIS] = ram[frame - 2];
+        ram[ARG] = ram[frame - 3];
+        ram[LCL] = ram[frame - 4];
+        return returnAddress;
+    }
+
+    /**
+     * @return what the program printed
+     */
+    public String getOutput() {
+        return os.getOutput();
+    }
+
+    public long getCycles() {
+        return cycles;
+    }
+
+    /**
+     * @return instructions in ROM, runtime and stubs included
+     */
+    public int getRomSize() {
+        return rom.length;
+    }
+
+    /**
+     * Prints the ROM size, cycles and OS calls
+     */
+    public void report(PrintStream out) {
+        out.println("ROM size:              " + rom.length);
+        out.println("Cycles:                " + cycles);
+        out.println("OS calls:              " + Arrays.stream(osCalls).sum());
+    }
+}
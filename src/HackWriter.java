@@ -0,0 +1,386 @@
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Lowers VM code to Hack assembly, one function at a time as VMWriter emits it. Plain mode translates every command
+ * on its own the way the standard VM translator does. Fused mode matches short sequences instead: a push followed by
+ * a pop becomes a direct move, a push followed by an operation works on the top of the stack in place, a comparison
+ * followed by if-goto becomes one conditional jump, and calls and returns share one call and one return routine in
+ * the runtime. Comparisons test D = x - y in both modes, like the standard translator.
+ */
+public class HackWriter {
+
+    // the base register of each Segment, by ordinal, null for the segments at a fixed address
+    private static final String[] BASES = {null, "ARG", "LCL", null, "THIS", "THAT", null, null};
+    private static final int MAX_INCREMENTS = 3; // A=A+1 steps used instead of computing an address through D
+
+    private final Writer asm;
+    private final String className;
+    private final boolean fuse;
+    private String function = "";
+    private int labelCount = 0;
+    private int instructionCount = 0;
+
+    /**
+     * @param asm receives the assembly
+     * @param className prefix of the class's static variables
+     * @param fuse true for fused mode, false for plain
+     */
+    public HackWriter(Writer asm, String className, boolean fuse) {
+        this.asm = asm;
+        this.className = className;
+        this.fuse = fuse;
+    }
+
+    /**
+     * @return Hack instructions written so far, labels don't count
+     */
+    public int getInstructionCount() {
+        return instructionCount;
+    }
+
+    /**
+     * The code every program starts with: sets up the stack, calls the entry function and stops in an endless loop
+     * at $HALT once it returns. Also holds the $CALL and $RETURN routines used by fused code.
+     * @param entry Sys.init if the program defines it, Main.main otherwise
+     */
+    public static String runtime(String entry) {
+        return String.join("\n",
+                "@256", "D=A", "@SP", "M=D", "@LCL", "M=D", "@ARG", "M=D",
+                "@R13", "M=0", "@" + entry, "D=A", "@R14", "M=D", "@$HALT", "D=A", "@$CALL", "0;JMP",
+                "($HALT)", "@$HALT", "0;JMP",
+                // D = return address, R13 = argument count, R14 = function
+                "($CALL)", "@SP", "A=M", "M=D",
+                "@LCL", "D=M", "@SP", "AM=M+1", "M=D",
+                "@ARG", "D=M", "@SP", "AM=M+1", "M=D",
+                "@THIS", "D=M", "@SP", "AM=M+1", "M=D",
+                "@THAT", "D=M", "@SP", "AM=M+1", "M=D",
+                "@SP", "MD=M+1", "@LCL", "M=D", "@R13", "D=D-M", "@5", "D=D-A", "@ARG", "M=D",
+                "@R14", "A=M", "0;JMP",
+                // R14 = return address, the frame is read back through LCL
+                "($RETURN)", "@5", "D=A", "@LCL", "A=M-D", "D=M", "@R14", "M=D",
+                "@SP", "AM=M-1", "D=M", "@ARG", "A=M", "M=D", "D=A+1", "@SP", "M=D",
+                "@LCL", "AM=M-1", "D=M", "@THAT", "M=D",
+                "@LCL", "AM=M-1", "D=M", "@THIS", "M=D",
+                "@LCL", "AM=M-1", "D=M", "@ARG", "M=D",
+                "@LCL", "A=M-1", "D=M", "@LCL", "M=D",
+                "@R14", "A=M", "0;JMP") + "\n";
+    }
+
+    /**
+     * Lowers every instruction of the buffer, comments and raw text are left out
+     * @throws IOException if the writer encounters an error
+     */
+    public void translate(VMCode code) throws IOException {
+        int i = next(code, -1);
+        while (i < code.size()) {
+            i = fuse ? translateFused(code, i) : translatePlain(code, i);
+        }
+    }
+
+    public void flush() throws IOException {
+        asm.flush();
+    }
+
+    public void close() throws IOException {
+        asm.close();
+    }
+
+    /**
+     * @return the index of the next instruction after i that runs
+     */
+    private static int next(VMCode code, int i) {
+        do {
+            i++;
+        } while (i < code.size() && !code.isInstruction(i));
+        return i;
+    }
+
+    /**
+     * @return the index of the next instruction to translate
+     */
+    private int translatePlain(VMCode code, int i) throws IOException {
+        int arg = code.arg(i);
+        int operand = code.operand(i);
+        switch (code.opcode(i)) {
+            case VMCode.PUSH -> {
+                loadD(arg, operand);
+                write("@SP", "A=M", "M=D", "@SP", "M=M+1");
+            }
+            case VMCode.POP -> {
+                if (BASES[arg] != null) {
+                    write("@" + operand, "D=A", "@" + BASES[arg], "D=D+M", "@R13", "M=D");
+                    write("@SP", "AM=M-1", "D=M", "@R13", "A=M", "M=D");
+                } else {
+                    write("@SP", "AM=M-1", "D=M", "@" + fixedAddress(arg, operand), "M=D");
+                }
+            }
+            case VMCode.ARITHMETIC -> {
+                Ops op = Ops.values()[arg];
+                switch (op) {
+                    case NEG -> write("@SP", "A=M-1", "M=-M");
+                    case NOT -> write("@SP", "A=M-1", "M=!M");
+                    case EQ, LT, GT -> {
+                        write("@SP", "AM=M-1", "D=M", "A=A-1", "D=M-D");
+                        materialize(op);
+                    }
+                    default -> write("@SP", "AM=M-1", "D=M", "A=A-1", binary(op));
+                }
+            }
+            case VMCode.LABEL -> label(function + "$" + code.name(arg));
+            case VMCode.GOTO -> write("@" + function + "$" + code.name(arg), "0;JMP");
+            case VMCode.IF_GOTO -> write("@SP", "AM=M-1", "D=M", "@" + function + "$" + code.name(arg), "D;JNE");
+            case VMCode.CALL -> {
+                String returnLabel = newLabel("ret");
+                write("@" + returnLabel, "D=A", "@SP", "A=M", "M=D", "@SP", "M=M+1");
+                for (String register : new String[]{"LCL", "ARG", "THIS", "THAT"}) {
+                    write("@" + register, "D=M", "@SP", "A=M", "M=D", "@SP", "M=M+1");
+                }
+                write("@SP", "D=M", "@" + (operand + 5), "D=D-A", "@ARG", "M=D", "@SP", "D=M", "@LCL", "M=D");
+                write("@" + code.name(arg), "0;JMP");
+                label(returnLabel);
+            }
+            case VMCode.FUNCTION -> {
+                startFunction(code.name(arg));
+                for (int local = 0; local < operand; local++) {
+                    write("@0", "D=A", "@SP", "A=M", "M=D", "@SP", "M=M+1");
+                }
+            }
+            case VMCode.RETURN -> {
+                write("@LCL", "D=M", "@R13", "M=D", "@5", "A=D-A", "D=M", "@R14", "M=D");
+                write("@SP", "AM=M-1", "D=M", "@ARG", "A=M", "M=D", "@ARG", "D=M+1", "@SP", "M=D");
+                for (String register : new String[]{"THAT", "THIS", "ARG", "LCL"}) {
+                    write("@R13", "AM=M-1", "D=M", "@" + register, "M=D");
+                }
+                write("@R14", "A=M", "0;JMP");
+            }
+            default -> throw new IllegalStateException("Not an instruction: " + code.opcode(i));
+        }
+        return next(code, i);
+    }
+
+    /**
+     * @return the index of the next instruction to translate
+     */
+    private int translateFused(VMCode code, int i) throws IOException {
+        int arg = code.arg(i);
+        int operand = code.operand(i);
+        int j = next(code, i);
+        byte nextOpcode = j < code.size() ? code.opcode(j) : VMCode.NOP;
+        switch (code.opcode(i)) {
+            case VMCode.PUSH -> {
+                if (nextOpcode == VMCode.POP) {
+                    move(arg, operand, code.arg(j), code.operand(j));
+                    return next(code, j);
+                } else if (nextOpcode == VMCode.ARITHMETIC && isBinary(code.arg(j))) {
+                    Ops op = Ops.values()[code.arg(j)];
+                    if (arg == Segment.CONSTANT.ordinal() && operand == 1 && (op == Ops.ADD || op == Ops.SUB)) {
+                        write("@SP", "A=M-1", op == Ops.ADD ? "M=M+1" : "M=M-1");
+                        return next(code, j);
+                    }
+                    loadD(arg, operand);
+                    if (op == Ops.EQ || op == Ops.LT || op == Ops.GT) {
+                        write("@SP", "A=M-1", "D=M-D");
+                        return compare(code, op, j);
+                    }
+                    write("@SP", "A=M-1", binary(op));
+                    return next(code, j);
+                } else if (nextOpcode == VMCode.IF_GOTO) {
+                    loadD(arg, operand);
+                    write("@" + function + "$" + code.name(code.arg(j)), "D;JNE");
+                    return next(code, j);
+                }
+                if (arg == Segment.CONSTANT.ordinal() && operand <= 1) {
+                    write("@SP", "AM=M+1", "A=A-1", "M=" + operand);
+                } else {
+                    loadD(arg, operand);
+                    write("@SP", "AM=M+1", "A=A-1", "M=D");
+                }
+            }
+            case VMCode.POP -> {
+                if (BASES[arg] != null && operand > MAX_INCREMENTS) {
+                    return translatePlain(code, i);
+                }
+                write("@SP", "AM=M-1", "D=M");
+                addressInA(arg, operand);
+                write("M=D");
+            }
+            case VMCode.ARITHMETIC -> {
+                Ops op = Ops.values()[arg];
+                if (op == Ops.EQ || op == Ops.LT || op == Ops.GT) {
+                    write("@SP", "AM=M-1", "D=M", "A=A-1", "D=M-D");
+                    return compare(code, op, i);
+                } else if (op == Ops.NOT && nextOpcode == VMCode.IF_GOTO) {
+                    write("@SP", "AM=M-1", "D=M", "@" + function + "$" + code.name(code.arg(j)), "D;JEQ");
+                    return next(code, j);
+                }
+                return translatePlain(code, i);
+            }
+            case VMCode.CALL -> {
+                String returnLabel = newLabel("ret");
+                if (operand <= 1) {
+                    write("@R13", "M=" + operand);
+                } else {
+                    write("@" + operand, "D=A", "@R13", "M=D");
+                }
+                write("@" + code.name(arg), "D=A", "@R14", "M=D", "@" + returnLabel, "D=A", "@$CALL", "0;JMP");
+                label(returnLabel);
+            }
+            case VMCode.FUNCTION -> {
+                startFunction(code.name(arg));
+                if (operand > 0) {
+                    write("@SP", "A=M", "M=0");
+                    for (int local = 1; local < operand; local++) {
+                        write("A=A+1", "M=0");
+                    }
+                    write("@" + operand, "D=A", "@SP", "M=D+M");
+                }
+            }
+            case VMCode.RETURN -> write("@$RETURN", "0;JMP");
+            default -> {
+                return translatePlain(code, i);
+            }
+        }
+        return j;
+    }
+
+    /**
+     * Finishes a comparison once D holds x - y and the first operand is popped, with A pointing at the second. A
+     * following if-goto, with or without a not in between, becomes a single jump.
+     * @param i the index of the comparison
+     * @return the index of the next instruction to translate
+     */
+    private int compare(VMCode code, Ops op, int i) throws IOException {
+        int j = next(code, i);
+        boolean negate = false;
+        if (j < code.size() && code.opcode(j) == VMCode.ARITHMETIC && code.arg(j) == Ops.NOT.ordinal()) {
+            int k = next(code, j);
+            if (k < code.size() && code.opcode(k) == VMCode.IF_GOTO) {
+                negate = true;
+                j = k;
+            }
+        }
+        if (j < code.size() && code.opcode(j) == VMCode.IF_GOTO) {
+            write("@SP", "M=M-1", "@" + function + "$" + code.name(code.arg(j)), "D;" + jump(op, negate));
+            return next(code, j);
+        }
+        materialize(op);
+        return next(code, i);
+    }
+
+    /**
+     * Replaces the value A points at with true or false, D holds x - y
+     */
+    private void materialize(Ops op) throws IOException {
+        String trueLabel = newLabel("true");
+        write("M=-1", "@" + trueLabel, "D;" + jump(op, false), "@SP", "A=M-1", "M=0");
+        label(trueLabel);
+    }
+
+    private static String jump(Ops op, boolean negate) {
+        return switch (op) {
+            case EQ -> negate ? "JNE" : "JEQ";
+            case LT -> negate ? "JGE" : "JLT";
+            case GT -> negate ? "JLE" : "JGT";
+            default -> throw new IllegalArgumentException("Not a comparison: " + op);
+        };
+    }
+
+    private static boolean isBinary(int op) {
+        return op != Ops.NEG.ordinal() && op != Ops.NOT.ordinal();
+    }
+
+    /**
+     * @return the instruction combining M, the first operand, with D, the second, into M
+     */
+    private static String binary(Ops op) {
+        return switch (op) {
+            case ADD -> "M=D+M";
+            case SUB -> "M=M-D";
+            case AND -> "M=D&M";
+            case OR -> "M=D|M";
+            default -> throw new IllegalArgumentException("Not a binary operation: " + op);
+        };
+    }
+
+    /**
+     * Copies a value straight from one segment to another without going through the stack
+     */
+    private void move(int fromSegment, int fromIndex, int toSegment, int toIndex) throws IOException {
+        if (BASES[toSegment] != null && toIndex > MAX_INCREMENTS) {
+            write("@" + toIndex, "D=A", "@" + BASES[toSegment], "D=D+M", "@R13", "M=D");
+            loadD(fromSegment, fromIndex);
+            write("@R13", "A=M", "M=D");
+        } else {
+            loadD(fromSegment, fromIndex);
+            addressInA(toSegment, toIndex);
+            write("M=D");
+        }
+    }
+
+    /**
+     * Puts the value of a segment entry in D, using only A and D
+     */
+    private void loadD(int segment, int index) throws IOException {
+        if (segment == Segment.CONSTANT.ordinal()) {
+            if (index <= 1 && fuse) {
+                write("D=" + index);
+            } else {
+                write("@" + index, "D=A");
+            }
+        } else if (BASES[segment] != null && (index > MAX_INCREMENTS || !fuse)) {
+            write("@" + index, "D=A", "@" + BASES[segment], "A=D+M", "D=M");
+        } else {
+            addressInA(segment, index);
+            write("D=M");
+        }
+    }
+
+    /**
+     * Puts the address of a segment entry in A without touching D, the index of a based segment has to be at most
+     * MAX_INCREMENTS
+     */
+    private void addressInA(int segment, int index) throws IOException {
+        if (BASES[segment] == null) {
+            write("@" + fixedAddress(segment, index));
+        } else {
+            write("@" + BASES[segment], index == 0 ? "A=M" : "A=M+1");
+            for (int i = 1; i < index; i++) {
+                write("A=A+1");
+            }
+        }
+    }
+
+    private String fixedAddress(int segment, int index) {
+        if (segment == Segment.STATIC.ordinal()) {
+            return className + "." + index;
+        } else if (segment == Segment.TEMP.ordinal()) {
+            return "R" + (5 + index);
+        } else if (segment == Segment.POINTER.ordinal()) {
+            return index == 0 ? "THIS" : "THAT";
+        }
+        throw new IllegalArgumentException("No fixed address for segment " + Segment.values()[segment]);
+    }
+
+    private void startFunction(String name) throws IOException {
+        function = name;
+        asm.write("// function " + name + "\n");
+        label(name);
+    }
+
+    private String newLabel(String kind) {
+        return function + "$" + kind + "." + labelCount++;
+    }
+
+    private void label(String label) throws IOException {
+        asm.write("(" + label + ")\n");
+    }
+
+    private void write(String... instructions) throws IOException {
+        for (String instruction : instructions) {
+            asm.write(instruction);
+            asm.write('\n');
+        }
+        instructionCount += instructions.length;
+    }
+}
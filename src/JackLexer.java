@@ -0,0 +1,297 @@
+/**
+ * Table driven scanner over a SourceBuffer. Tokens are kept as (type, start, length) spans into the source array so
+ * scanning a token allocates nothing; Strings are only made when a caller asks for one.
+ */
+public class JackLexer {
+
+    // token types are TokenType ordinals so they can be stored in int arrays
+    public static final int KEYWORD = TokenType.KEYWORD.ordinal();
+    public static final int SYMBOL = TokenType.SYMBOL.ordinal();
+    public static final int IDENTIFIER = TokenType.IDENTIFIER.ordinal();
+    public static final int INT_CONSTANT = TokenType.INT_CONSTANT.ordinal();
+    public static final int STR_CONSTANT = TokenType.STR_CONSTANT.ordinal();
+    public static final int NONE = TokenType.NONE.ordinal();
+
+    // returned by next() instead of a token type
+    public static final int BLOCK_COMMENT = -1;
+    public static final int END = -2;
+
+    public static final TokenType[] TYPES = TokenType.values();
+
+    public static final String[] KEYWORDS = {
+            "class", "constructor", "function", "method", "field", "static", "var", "int", "char", "boolean",
+            "void", "true", "false", "null", "this", "let", "do", "if", "else", "while", "return"};
+
+    // character classes
+    private static final byte OTHER = 0;
+    private static final byte WHITESPACE = 1;
+    private static final byte SYMBOL_CHAR = 2;
+    private static final byte DIGIT = 3;
+    private static final byte LETTER = 4; // includes '_'
+
+    private static final byte[] CHAR_CLASS = new byte[128];
+    private static final int[][] KEYWORDS_BY_LENGTH = new int[12][];
+
+    static {
+        for (char c : new char[]{'\t', '\n', '\u000B', '\f', '\r', '\u001C', '\u001D', '\u001E', '\u001F', ' '}) {
+            CHAR_CLASS[c] = WHITESPACE;
+        }
+        for (char c : "{}()[].,;+-*/&|<>=~".toCharArray()) {
+            CHAR_CLASS[c] = SYMBOL_CHAR;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            CHAR_CLASS[c] = DIGIT;
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            CHAR_CLASS[c] = LETTER;
+            CHAR_CLASS[Character.toUpperCase(c)] = LETTER;
+        }
+        CHAR_CLASS['_'] = LETTER;
+
+        int[] counts = new int[KEYWORDS_BY_LENGTH.length];
+        for (String k : KEYWORDS) {
+            counts[k.length()]++;
+        }
+        for (int i = 0; i < counts.length; i++) {
+            KEYWORDS_BY_LENGTH[i] = new int[counts[i]];
+            counts[i] = 0;
+        }
+        for (int id = 0; id < KEYWORDS.length; id++) {
+            int length = KEYWORDS[id].length();
+            KEYWORDS_BY_LENGTH[length][counts[length]++] = id;
+        }
+    }
+
+    private final char[] chars;
+    private final int length;
+    private int current = 0; // index of the current character
+    private int lineNumber = 1;
+
+    private int type = NONE;
+    private int tokenStart = 0;
+    private int tokenLength = 0;
+    private int keywordId = -1;
+    private int intValue = 0;
+
+    public JackLexer(SourceBuffer source) {
+        chars = source.array();
+        length = source.length();
+        skipWhiteSpace();
+    }
+
+    /**
+     * Scans the next token, leaving any whitespace after it for skipWhiteSpace()
+     * @return the token type, BLOCK_COMMENT if a block comment was consumed instead, or END if the input ran out
+     */
+    public int next() {
+        tokenStart = current;
+        tokenLength = 0;
+        while (!atEnd()) {
+            type = NONE;
+            char c = charAt(current);
+            char n = charAt(current + 1);
+            if (c == '/' && n == '/') {
+                while (charAt(current) != '\n' && !atEnd()) {
+                    step();
+                }
+                step();
+                skipWhiteSpace();
+                tokenStart = current;
+                tokenLength = 0;
+            } else if (c == '/' && n == '*') {
+                int startLine = lineNumber;
+                while (charAt(current) != '*' || charAt(current + 1) != '/') {
+                    if (atEnd()) {
+                        throw new IllegalArgumentException("Unterminated comment on line " + startLine);
+                    }
+                    step();
+                }
+                step();
+                step();
+                skipWhiteSpace();
+                return BLOCK_COMMENT;
+            } else if (c == '"') {
+                loadStringToken();
+                return type;
+            } else if (c < 128 && CHAR_CLASS[c] == SYMBOL_CHAR) {
+                type = SYMBOL;
+                step();
+                return type;
+            } else {
+                loadText();
+                searchToken();
+                return type;
+            }
+        }
+        return END;
+    }
+
+    /**
+     * @return true once the character after the current one is past the end of the input
+     */
+    public boolean atEnd() {
+        return current + 1 >= length;
+    }
+
+    public int type() {
+        return type;
+    }
+
+    public int tokenStart() {
+        return tokenStart;
+    }
+
+    public int tokenLength() {
+        return tokenLength;
+    }
+
+    /**
+     * @return the index of the current token in KEYWORDS
+     */
+    public int keywordId() {
+        return keywordId;
+    }
+
+    public int intValue() {
+        return intValue;
+    }
+
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    public char[] array() {
+        return chars;
+    }
+
+    public String tokenString() {
+        return new String(chars, tokenStart, tokenLength);
+    }
+
+    private char charAt(int index) {
+        return index < length ? chars[index] : '\uFFFF';
+    }
+
+    private void loadStringToken() {
+        type = STR_CONSTANT;
+        step();
+        while (charAt(current) != '"') {
+            if (charAt(current) == '\n') {
+                // Strings cannot contain new lines
+                throw new IllegalArgumentException("Invalid String declaration on line " + lineNumber);
+            }
+            if (atEnd()) {
+                throw new IllegalArgumentException("Unterminated String on line " + lineNumber);
+            }
+            step();
+        }
+        step();
+    }
+
+    private void loadText() {
+        char c = charAt(current);
+        while (!isWhitespace(c) && !(c < 128 && CHAR_CLASS[c] == SYMBOL_CHAR) && !atEnd()) {
+            step();
+            c = charAt(current);
+        }
+    }
+
+    private void searchToken() {
+        keywordId = findKeyword(chars, tokenStart, tokenLength);
+        if (keywordId != -1) {
+            type = KEYWORD;
+        } else if (isDigit(chars[tokenStart])) {
+            intValue = parseInt();
+            type = INT_CONSTANT;
+        } else if (validIdentifier()) {
+            type = IDENTIFIER;
+        } else {
+            throw new IllegalArgumentException("Unrecognized token on line " + lineNumber);
+        }
+    }
+
+    /**
+     * Keywords are grouped by length so only a handful of candidates are ever compared
+     * @return the index of the keyword in KEYWORDS, -1 if the span isn't a keyword
+     */
+    public static int findKeyword(char[] s, int start, int length) {
+        if (length >= KEYWORDS_BY_LENGTH.length) {
+            return -1;
+        }
+        for (int id : KEYWORDS_BY_LENGTH[length]) {
+            String keyword = KEYWORDS[id];
+            int i = 0;
+            while (i < length && keyword.charAt(i) == s[start + i]) {
+                i++;
+            }
+            if (i == length) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    private int parseInt() {
+        long value = 0;
+        for (int i = tokenStart; i < tokenStart + tokenLength; i++) {
+            char c = chars[i];
+            if (c >= 128 || CHAR_CLASS[c] != DIGIT || value > Integer.MAX_VALUE) {
+                // rare path, let Integer.parseInt decide so behaviour matches exactly
+                try {
+                    return Integer.parseInt(tokenString());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid integer constant on line " + lineNumber);
+                }
+            }
+            value = value * 10 + (c - '0');
+        }
+        if (value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid integer constant on line " + lineNumber);
+        }
+        return (int) value;
+    }
+
+    private boolean validIdentifier() {
+        for (int i = tokenStart; i < tokenStart + tokenLength; i++) {
+            char c = chars[i];
+            if (c < 128) {
+                if (CHAR_CLASS[c] != LETTER && CHAR_CLASS[c] != DIGIT) {
+                    return false;
+                }
+            } else if (!Character.isDigit(c) && !Character.isAlphabetic(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c < 128 ? CHAR_CLASS[c] == WHITESPACE : Character.isWhitespace(c);
+    }
+
+    private static boolean isDigit(char c) {
+        return c < 128 ? CHAR_CLASS[c] == DIGIT : Character.isDigit(c);
+    }
+
+    /**
+     * Extends the current token by one character and moves to the next one
+     */
+    private void step() {
+        tokenLength++;
+        if (charAt(current) == '\n') {
+            lineNumber++;
+        }
+        current++;
+    }
+
+    public void skipWhiteSpace() {
+        char c = charAt(current);
+        while (isWhitespace(c)) {
+            if (c == '\n') {
+                lineNumber++;
+            }
+            current++;
+            c = charAt(current);
+        }
+    }
+}
@@ -0,0 +1,438 @@
+import java.util.HashMap;
+
+/**
+ * The Jack OS classes implemented in Java for VMInterpreter, working on its RAM the way the real OS does: objects live
+ * on the heap between 2048 and 16383 and the screen is the memory map at 16384. Output and keyboard are text, so
+ * programs run headlessly. Errors end the program with ERR and the OS error code, like Sys.error.
+ */
+public class JackOS {
+
+    public static final int HEAP = 2048;
+    public static final int HEAP_END = 16384;
+    public static final int SCREEN = 16384;
+    public static final int KEYBOARD = 24576;
+
+    // Jack's character set beyond ASCII
+    private static final int NEW_LINE = 128;
+    private static final int BACKSPACE = 129;
+
+    private static final String[] FUNCTIONS = {
+            "Math.init", "Math.abs", "Math.multiply", "Math.divide", "Math.min", "Math.max", "Math.sqrt",
+            "String.new", "String.dispose", "String.length", "String.charAt", "String.setCharAt", "String.appendChar",
+            "String.eraseLastChar", "String.intValue", "String.setInt", "String.backSpace", "String.doubleQuote",
+            "String.newLine",
+            "Array.new", "Array.dispose",
+            "Output.init", "Output.moveCursor", "Output.printChar", "Output.printString", "Output.printInt",
+            "Output.println", "Output.backSpace",
+            "Screen.init", "Screen.clearScreen", "Screen.setColor", "Screen.drawPixel", "Screen.drawLine",
+            "Screen.drawRectangle", "Screen.drawCircle",
+            "Keyboard.init", "Keyboard.keyPressed", "Keyboard.readChar", "Keyboard.readLine", "Keyboard.readInt",
+            "Memory.init", "Memory.peek", "Memory.poke", "Memory.alloc", "Memory.deAlloc",
+            "Sys.init", "Sys.halt", "Sys.error", "Sys.wait"
+    };
+    private static final HashMap<String, Integer> IDS = new HashMap<>();
+
+    static {
+        for (int id = 0; id < FUNCTIONS.length; id++) {
+            IDS.put(FUNCTIONS[id], id);
+        }
+    }
+
+    private final int[] ram;
+    private final StringBuilder output = new StringBuilder();
+    private CharSequence input = "";
+    private int inputPosition = 0;
+    private int freeList;
+    private boolean color = true;
+    private boolean halted = false;
+
+    /**
+     * @param ram the memory the program runs in, 32K words holding 16 bit values
+     */
+    public JackOS(int[] ram) {
+        this.ram = ram;
+        init();
+    }
+
+    /**
+     * @return the id of an OS function, -1 if there's no such function
+     */
+    public static int find(String name) {
+        Integer id = IDS.get(name);
+        return id == null ? -1 : id;
+    }
+
+    public static String name(int id) {
+        return FUNCTIONS[id];
+    }
+
+    public static int functionCount() {
+        return FUNCTIONS.length;
+    }
+
+    /**
+     * Resets the heap, the screen color and the halt flag, the work Sys.init does before Main.main
+     */
+    public void init() {
+        freeList = HEAP;
+        ram[HEAP] = HEAP_END - HEAP; // one free block, its size includes the header
+        ram[HEAP + 1] = 0;
+        color = true;
+        halted = false;
+    }
+
+    /**
+     * @param input what the keyboard types, read by keyPressed, readChar, readLine and readInt
+     */
+    public void setInput(CharSequence input) {
+        this.input = input;
+        inputPosition = 0;
+    }
+
+    /**
+     * @return everything the program printed
+     */
+    public String getOutput() {
+        return output.toString();
+    }
+
+    /**
+     * @return true once the program called Sys.halt or hit an OS error
+     */
+    public boolean isHalted() {
+        return halted;
+    }
+
+    /**
+     * Runs an OS function
+     * @param id the function's id from find
+     * @param args the address of the first argument on the stack
+     * @return the return value, 0 for void functions
+     */
+    public int call(int id, int args) {
+        int a = ram[args];
+        int b = args + 1 < ram.length ? ram[args + 1] : 0;
+        switch (FUNCTIONS[id]) {
+            case "Math.abs" -> {
+                return (short) Math.abs(a);
+            }
+            case "Math.multiply" -> {
+                return (short) (a * b);
+            }
+            case "Math.divide" -> {
+                if (b == 0) {
+                    return error(3);
+                }
+                return (short) (a / b);
+            }
+            case "Math.min" -> {
+                return Math.min(a, b);
+            }
+            case "Math.max" -> {
+                return Math.max(a, b);
+            }
+            case "Math.sqrt" -> {
+                if (a < 0) {
+                    return error(4);
+                }
+                return (int) Math.sqrt(a);
+            }
+            case "String.new" -> {
+                if (a < 0) {
+                    return error(14);
+                }
+                int string = alloc(a + 2); // max length, length, characters
+                if (string != 0) {
+                    ram[string] = a;
+                    ram[string + 1] = 0;
+                }
+                return string;
+            }
+            case "String.dispose", "Array.dispose", "Memory.deAlloc" -> deAlloc(a);
+            case "String.length" -> {
+                return ram[a + 1];
+            }
+            case "String.charAt" -> {
+                if (b < 0 || b >= ram[a + 1]) {
+                    return error(15);
+                }
+                return ram[a + 2 + b];
+            }
+            case "String.setCharAt" -> {
+                if (b < 0 || b >= ram[a + 1]) {
+                    return error(16);
+                }
+                ram[a + 2 + b] = ram[args + 2];
+            }
+            case "String.appendChar" -> {
+                if (ram[a + 1] == ram[a]) {
+                    return error(17);
+                }
+                ram[a + 2 + ram[a + 1]] = b;
+                ram[a + 1]++;
+                return a;
+            }
+            case "String.eraseLastChar" -> {
+                if (ram[a + 1] == 0) {
+                    return error(18);
+                }
+                ram[a + 1]--;
+            }
+            case "String.intValue" -> {
+                return intValue(a);
+            }
+            case "String.setInt" -> {
+                String digits = Integer.toString(b);
+                if (digits.length() > ram[a]) {
+                    return error(19);
+                }
+                for (int i = 0; i < digits.length(); i++) {
+                    ram[a + 2 + i] = digits.charAt(i);
+                }
+                ram[a + 1] = digits.length();
+            }
+            case "String.backSpace" -> {
+                return BACKSPACE;
+            }
+            case "String.doubleQuote" -> {
+                return '"';
+            }
+            case "String.newLine" -> {
+                return NEW_LINE;
+            }
+            case "Array.new" -> {
+                if (a <= 0) {
+                    return error(2);
+                }
+                return alloc(a);
+            }
+            case "Output.moveCursor" -> {
+                if (a < 0 || a > 22 || b < 0 || b > 63) {
+                    return error(20);
+                }
+            }
+            case "Output.printChar" -> printChar(a);
+            case "Output.printString" -> {
+                for (int i = 0; i < ram[a + 1]; i++) {
+                    printChar(ram[a + 2 + i]);
+                }
+            }
+            case "Output.printInt" -> output.append(a);
+            case "Output.println" -> output.append('\n');
+            case "Output.backSpace" -> printChar(BACKSPACE);
+            case "Screen.clearScreen" -> {
+                for (int i = SCREEN; i < KEYBOARD; i++) {
+                    ram[i] = 0;
+                }
+            }
+            case "Screen.setColor" -> color = a != 0;
+            case "Screen.drawPixel" -> {
+                if (!onScreen(a, b)) {
+                    return error(7);
+                }
+                drawPixel(a, b);
+            }
+            case "Screen.drawLine" -> {
+                if (!onScreen(a, b) || !onScreen(ram[args + 2], ram[args + 3])) {
+                    return error(8);
+                }
+                drawLine(a, b, ram[args + 2], ram[args + 3]);
+            }
+            case "Screen.drawRectangle" -> {
+                int x2 = ram[args + 2];
+                int y2 = ram[args + 3];
+                if (!onScreen(a, b) || !onScreen(x2, y2) || a > x2 || b > y2) {
+                    return error(9);
+                }
+                for (int y = b; y <= y2; y++) {
+                    for (int x = a; x <= x2; x++) {
+                        drawPixel(x, y);
+                    }
+                }
+            }
+            case "Screen.drawCircle" -> {
+                int r = ram[args + 2];
+                if (!onScreen(a, b)) {
+                    return error(12);
+                }
+                if (r < 0 || r > 181 || !onScreen(a - r, b - r) || !onScreen(a + r, b + r)) {
+                    return error(13);
+                }
+                for (int dy = -r; dy <= r; dy++) {
+                    int dx = (int) Math.sqrt(r * r - dy * dy);
+                    for (int x = a - dx; x <= a + dx; x++) {
+                        drawPixel(x, b + dy);
+                    }
+                }
+            }
+            case "Keyboard.keyPressed" -> {
+                return inputPosition < input.length() ? toJackChar(input.charAt(inputPosition++)) : 0;
+            }
+            case "Keyboard.readChar" -> {
+                int c = readChar();
+                printChar(c);
+                return c;
+            }
+            case "Keyboard.readLine" -> {
+                printString(a);
+                return newString(readLine());
+            }
+            case "Keyboard.readInt" -> {
+                printString(a);
+                String line = readLine().trim();
+                int end = line.startsWith("-") ? 1 : 0;
+                while (end < line.length() && Character.isDigit(line.charAt(end))) {
+                    end++;
+                }
+                return end == 0 || line.equals("-") ? 0 : (short) Integer.parseInt(line.substring(0, end));
+            }
+            case "Memory.peek" -> {
+                return ram[a];
+            }
+            case "Memory.poke" -> ram[a] = b;
+            case "Memory.alloc" -> {
+                if (a <= 0) {
+                    return error(5);
+                }
+                return alloc(a);
+            }
+            case "Sys.halt" -> halted = true;
+            case "Sys.error" -> error(a);
+            case "Sys.wait" -> {
+                if (a < 0) {
+                    return error(1);
+                }
+            }
+            default -> { // the init functions, the constructor sets everything up
+            }
+        }
+        return 0;
+    }
+
+    private int error(int code) {
+        output.append("ERR").append(code);
+        halted = true;
+        return 0;
+    }
+
+    /**
+     * First fit over a list of free blocks. A block's size, header included, is stored in the word before the
+     * address handed out.
+     */
+    private int alloc(int size) {
+        int previous = 0;
+        for (int block = freeList; block != 0; previous = block, block = ram[block + 1]) {
+            int blockSize = ram[block];
+            if (blockSize >= size + 3) {
+                // split off the end of the block, the free part keeps its place in the list
+                ram[block] = blockSize - (size + 1);
+                int allocated = block + ram[block];
+                ram[allocated] = size + 1;
+                return allocated + 1;
+            } else if (blockSize >= size + 1) {
+                if (previous == 0) {
+                    freeList = ram[block + 1];
+                } else {
+                    ram[previous + 1] = ram[block + 1];
+                }
+                return block + 1;
+            }
+        }
+        return error(6);
+    }
+
+    private void deAlloc(int object) {
+        int block = object - 1;
+        ram[block + 1] = freeList;
+        freeList = block;
+    }
+
+    private int newString(String s) {
+        int string = alloc(Math.max(s.length(), 1) + 2);
+        if (string != 0) {
+            ram[string] = Math.max(s.length(), 1);
+            ram[string + 1] = s.length();
+            for (int i = 0; i < s.length(); i++) {
+                ram[string + 2 + i] = s.charAt(i);
+            }
+        }
+        return string;
+    }
+
+    private int intValue(int string) {
+        int value = 0;
+        int length = ram[string + 1];
+        boolean negative = length > 0 && ram[string + 2] == '-';
+        for (int i = negative ? 1 : 0; i < length && ram[string + 2 + i] >= '0' && ram[string + 2 + i] <= '9'; i++) {
+            value = value * 10 + ram[string + 2 + i] - '0';
+        }
+        return (short) (negative ? -value : value);
+    }
+
+    private void printString(int string) {
+        for (int i = 0; i < ram[string + 1]; i++) {
+            printChar(ram[string + 2 + i]);
+        }
+    }
+
+    private void printChar(int c) {
+        if (c == NEW_LINE) {
+            output.append('\n');
+        } else if (c == BACKSPACE) {
+            if (!output.isEmpty()) {
+                output.setLength(output.length() - 1);
+            }
+        } else {
+            output.append((char) c);
+        }
+    }
+
+    private int readChar() {
+        return inputPosition < input.length() ? toJackChar(input.charAt(inputPosition++)) : NEW_LINE;
+    }
+
+    private String readLine() {
+        StringBuilder line = new StringBuilder();
+        for (int c = readChar(); c != NEW_LINE; c = readChar()) {
+            line.append((char) c);
+        }
+        output.append(line).append('\n'); // echoed like the real keyboard does
+        return line.toString();
+    }
+
+    private static int toJackChar(char c) {
+        return c == '\n' ? NEW_LINE : c;
+    }
+
+    private static boolean onScreen(int x, int y) {
+        return x >= 0 && x < 512 && y >= 0 && y < 256;
+    }
+
+    private void drawPixel(int x, int y) {
+        int address = SCREEN + y * 32 + x / 16;
+        int bit = 1 << (x & 15);
+        ram[address] = (short) (color ? ram[address] | bit : ram[address] & ~bit);
+    }
+
+    private void drawLine(int x1, int y1, int x2, int y2) {
+        int dx = Math.abs(x2 - x1);
+        int dy = -Math.abs(y2 - y1);
+        int stepX = x1 < x2 ? 1 : -1;
+        int stepY = y1 < y2 ? 1 : -1;
+        int error = dx + dy;
+        while (true) {
+            drawPixel(x1, y1);
+            if (x1 == x2 && y1 == y2) {
+                return;
+            }
+            if (2 * error >= dy) {
+                error += dy;
+                x1 += stepX;
+            }
+            if (2 * error <= dx) {
+                error += dx;
+                y1 += stepY;
+            }
+        }
+    }
+}
@@ -0,0 +1,427 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Recursive descent parser building an Ast.Class from a JackTokenizer. It only checks the grammar, names are resolved
+ * by the generators that walk the tree.
+ */
+public class JackParser {
+
+    private static final List<String> CLASS_VAR_DEC_KEYWORDS = List.of("static", "field");
+    private static final List<String> TYPE_KEYWORDS = List.of("int", "char", "boolean", "Array");
+    private static final List<String> SUBROUTINE_DEC_KEYWORDS = List.of("constructor", "function", "method");
+    private static final List<String> KEYWORD_CONSTANTS = List.of("true", "false", "null", "this");
+    private static final String OPS = "+-*/&|<>=";
+    private static final String UNARY_OPS = "-~";
+
+    private final JackTokenizer tokenizer;
+    private TokenType currentTokenType;
+    private String currentClass = null;
+
+    /**
+     * @param tokenizer positioned before the first token, it should not have a VMWriter
+     */
+    public JackParser(JackTokenizer tokenizer) {
+        this.tokenizer = tokenizer;
+    }
+
+    private void advance() throws IOException {
+        tokenizer.advance();
+        currentTokenType = tokenizer.getType();
+    }
+
+    private void eatTerminalSymbol(char c) throws IOException {
+        char t = tokenizer.symbol();
+        if (c != t){
+            throw new IllegalArgumentException("Exception in class " + currentClass + " Unexpected token on line " + tokenizer.getLineNumber() + "\n" +
+                    "expected: " + c + " received: " + t);
+        }
+        advance();
+    }
+
+    private void eatTerminalKeyword(String keyword) throws IOException {
+        String s = tokenizer.keyword();
+        if (!s.equals(keyword)){
+            throw new IllegalArgumentException("Exception in class " + currentClass + "Unexpected token on line " + tokenizer.getLineNumber() + "\n" +
+                    "expected: " + keyword + " received: " + s);
+        }
+        advance();
+    }
+
+    /**
+     * @return the identifier that was eaten
+     */
+    private String eatTerminalIdentifier() throws IOException {
+        String identifier = tokenizer.identifier();
+        advance();
+        return identifier;
+    }
+
+    /**
+     * @return the identifier that was eaten with its interned id
+     */
+    private Ast.Name eatTerminalName() throws IOException {
+        Ast.Name name = new Ast.Name(tokenizer.identifier(), tokenizer.identifierId());
+        advance();
+        return name;
+    }
+
+    private boolean atSymbol(String symbols) {
+        return currentTokenType == TokenType.SYMBOL && symbols.indexOf(tokenizer.symbol()) >= 0;
+    }
+
+    /**
+     * 'class' className '{' classVarDec* subroutineDec* '}'
+     */
+    public Ast.Class parseClass() throws IOException {
+        advance();
+        eatTerminalKeyword("class");
+        currentClass = tokenizer.getTokenString();
+        String name = eatTerminalIdentifier();
+        eatTerminalSymbol('{');
+
+        List<Ast.ClassVarDec> varDecs = new ArrayList<>();
+        while (currentTokenType == TokenType.KEYWORD && CLASS_VAR_DEC_KEYWORDS.contains(tokenizer.keyword())){
+            varDecs.add(parseClassVarDec());
+        }
+        int tablePosition = tokenizer.position();
+
+        List<Ast.Subroutine> subroutines = new ArrayList<>();
+        while (currentTokenType == TokenType.KEYWORD && SUBROUTINE_DEC_KEYWORDS.contains(tokenizer.keyword())){
+            subroutines.add(parseSubroutineDec());
+        }
+        int closePosition = tokenizer.position();
+        eatTerminalSymbol('}');
+        return new Ast.Class(name, varDecs, subroutines, tablePosition, closePosition, tokenizer.position());
+    }
+
+    /**
+     * ('static'|'field') type varName (',' varName)* ';'
+     */
+    private Ast.ClassVarDec parseClassVarDec() throws IOException {
+        String kind = tokenizer.keyword();
+        eatTerminalKeyword(kind);
+        Ast.Type type = parseType();
+        List<Ast.Name> names = new ArrayList<>();
+        names.add(eatTerminalName());
+        while (currentTokenType == TokenType.SYMBOL && tokenizer.symbol() == ','){
+            eatTerminalSymbol(',');
+            names.add(eatTerminalName());
+        }
+        eatTerminalSymbol(';');
+        return new Ast.ClassVarDec(kind, type, names);
+    }
+
+    /**
+     * ('constructor'|'function'|'method') ('void'|type) subroutineName '(' parameterList ')' subroutineBody
+     */
+    private Ast.Subroutine parseSubroutineDec() throws IOException {
+        String kind = tokenizer.keyword();
+        eatTerminalKeyword(kind);
+
+        Ast.Type returnType = null;
+        if (currentTokenType == TokenType.KEYWORD && tokenizer.keyword().equals("void")){
+            eatTerminalKeyword("void");
+        } else {
+            returnType = parseType();
+        }
+        String name = eatTerminalIdentifier();
+        eatTerminalSymbol('(');
+        List<Ast.Parameter> parameters = parseParameterList();
+        eatTerminalSymbol(')');
+
+        // '{' varDec* statements '}'
+        eatTerminalSymbol('{');
+        List<Ast.VarDec> varDecs = new ArrayList<>();
+        while (currentTokenType == TokenType.KEYWORD && tokenizer.keyword().equals("var")){
+            varDecs.add(parseVarDec());
+        }
+        int functionPosition = tokenizer.position();
+        Ast.Statements statements = null;
+        if (currentTokenType == TokenType.KEYWORD) {
+            statements = parseStatements();
+        }
+        eatTerminalSymbol('}');
+        return new Ast.Subroutine(kind, returnType, name, parameters, varDecs, statements, functionPosition);
+    }
+
+    /**
+     * ((type varName) (',' type varName)*)?
+     */
+    private List<Ast.Parameter> parseParameterList() throws IOException {
+        List<Ast.Parameter> parameters = new ArrayList<>();
+        if ((currentTokenType == TokenType.KEYWORD) || (currentTokenType == TokenType.IDENTIFIER)) { // Arrays are IDENTIFIERS
+            Ast.Type type = parseType();
+            parameters.add(new Ast.Parameter(type, eatTerminalName()));
+            while (tokenizer.symbol() == ',') {
+                eatTerminalSymbol(',');
+                type = parseType();
+                parameters.add(new Ast.Parameter(type, eatTerminalName()));
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     *  'var' type varName (',' varName)* ';'
+     */
+    private Ast.VarDec parseVarDec() throws IOException {
+        eatTerminalKeyword("var");
+        Ast.Type type = parseType();
+        List<Ast.Name> names = new ArrayList<>();
+        names.add(eatTerminalName());
+        while (tokenizer.symbol() == ','){
+            eatTerminalSymbol(',');
+            names.add(eatTerminalName());
+        }
+        eatTerminalSymbol(';');
+        return new Ast.VarDec(type, names);
+    }
+
+    private Ast.Type parseType() throws IOException {
+        if (currentTokenType == TokenType.KEYWORD && TYPE_KEYWORDS.contains(tokenizer.keyword())){
+            String keyword = tokenizer.keyword();
+            eatTerminalKeyword(keyword);
+            return new Ast.Type(keyword, true);
+        } else if (currentTokenType == TokenType.IDENTIFIER){
+            return new Ast.Type(eatTerminalIdentifier(), false);
+        } else {
+            throw new IllegalArgumentException("Unexpected token on line " + tokenizer.getLineNumber());
+        }
+    }
+
+    /**
+     * statement* -> (letStatement | ifStatement | whileStatement | doStatement | returnStatement)*
+     */
+    private Ast.Statements parseStatements() throws IOException {
+        List<Ast.Statement> statements = new ArrayList<>();
+        while (currentTokenType == TokenType.KEYWORD){
+            switch (tokenizer.keyword()){
+                case "let" -> statements.add(parseLet());
+                case "if" -> statements.add(parseIf());
+                case "while" -> statements.add(parseWhile());
+                case "do" -> statements.add(parseDo());
+                case "return" -> statements.add(parseReturn());
+            }
+        }
+        return new Ast.Statements(statements);
+    }
+
+    /**
+     * 'let' varName ('[' expression ']')? '=' expression ';'
+     */
+    private Ast.Let parseLet() throws IOException {
+        eatTerminalKeyword("let");
+        Ast.Name name = eatTerminalName();
+        int namePosition = tokenizer.position();
+        Ast.Expression index = null;
+        if (tokenizer.symbol() == '['){
+            eatTerminalSymbol('[');
+            index = parseExpression();
+            eatTerminalSymbol(']');
+        }
+        int indexEndPosition = tokenizer.position();
+        eatTerminalSymbol('=');
+        Ast.Expression value = parseExpression();
+        int endPosition = tokenizer.position();
+        eatTerminalSymbol(';');
+        return new Ast.Let(name, index, value, namePosition, indexEndPosition, endPosition);
+    }
+
+    /**
+     * 'if' '(' expression ')' '{' statements '}' ( 'else' '{' statements' '}')?
+     */
+    private Ast.If parseIf() throws IOException {
+        eatTerminalKeyword("if");
+        eatTerminalSymbol('(');
+        Ast.Expression condition = parseExpression();
+        eatTerminalSymbol(')');
+        int conditionEndPosition = tokenizer.position();
+        eatTerminalSymbol('{');
+        Ast.Statements then = parseStatements();
+        int thenEndPosition = tokenizer.position();
+        eatTerminalSymbol('}');
+        Ast.Statements otherwise = null;
+        if (currentTokenType == TokenType.KEYWORD && tokenizer.keyword().equals("else")){
+            eatTerminalKeyword("else");
+            eatTerminalSymbol('{');
+            otherwise = parseStatements();
+            eatTerminalSymbol('}');
+        }
+        return new Ast.If(condition, then, otherwise, conditionEndPosition, thenEndPosition, tokenizer.position());
+    }
+
+    /**
+     *  whileStatement:  'while' '(' expression ')' '{' statements '}'
+     */
+    private Ast.While parseWhile() throws IOException {
+        eatTerminalKeyword("while");
+        int startPosition = tokenizer.position();
+        eatTerminalSymbol('(');
+        Ast.Expression condition = parseExpression();
+        eatTerminalSymbol(')');
+        int conditionEndPosition = tokenizer.position();
+        eatTerminalSymbol('{');
+        Ast.Statements body = parseStatements();
+        int bodyEndPosition = tokenizer.position();
+        eatTerminalSymbol('}');
+        return new Ast.While(condition, body, startPosition, conditionEndPosition, bodyEndPosition,
+                tokenizer.position());
+    }
+
+    /**
+     * doStatement:  'do' subroutineName '(' expressionList ')' |
+     * (className|varName) '.' subroutineName '(' expressionList ')' ';'
+     */
+    private Ast.Do parseDo() throws IOException {
+        eatTerminalKeyword("do");
+        Ast.Name identifier = eatTerminalName();
+        int position = tokenizer.position();
+        Ast.Call call;
+        if (tokenizer.symbol() == '(') {
+            call = parseCall(null, identifier, position);
+        } else {
+            call = parseDottedCall(identifier, position);
+        }
+        eatTerminalSymbol(';');
+        return new Ast.Do(call);
+    }
+
+    /**
+     * returnStatement:  'return' expression? ';'
+     */
+    private Ast.Return parseReturn() throws IOException {
+        eatTerminalKeyword("return");
+        int startPosition = tokenizer.position();
+        Ast.Expression value = null;
+        if (!(currentTokenType == TokenType.SYMBOL && tokenizer.symbol() == ';')){
+            value = parseExpression();
+        }
+        int endPosition = tokenizer.position();
+        eatTerminalSymbol(';');
+        return new Ast.Return(value, startPosition, endPosition);
+    }
+
+    /**
+     *   expression:  term (op term)*
+     */
+    private Ast.Expression parseExpression() throws IOException {
+        int position = tokenizer.position();
+        Ast.Term term = parseTerm();
+        if (!atSymbol(OPS)){
+            return new Ast.Expression(List.of(term), List.of(), new int[]{position}, tokenizer.position());
+        }
+        // most expressions are a single term, the lists are only built for the rest
+        List<Ast.Term> terms = new ArrayList<>();
+        List<Character> ops = new ArrayList<>();
+        int[] termPositions = new int[4];
+        terms.add(term);
+        termPositions[0] = position;
+        while (atSymbol(OPS)){
+            char op = tokenizer.symbol();
+            ops.add(op);
+            eatTerminalSymbol(op);
+            if (terms.size() == termPositions.length){
+                termPositions = Arrays.copyOf(termPositions, termPositions.length * 2);
+            }
+            termPositions[terms.size()] = tokenizer.position();
+            terms.add(parseTerm());
+        }
+        return new Ast.Expression(terms, ops, termPositions, tokenizer.position());
+    }
+
+    /**
+     * ( expression (',' expression)*)?
+     */
+    private List<Ast.Expression> parseExpressionList() throws IOException {
+        List<Ast.Expression> expressions = new ArrayList<>();
+        if (currentTokenType != TokenType.SYMBOL || tokenizer.symbol() != ')'){
+            expressions.add(parseExpression());
+            while (currentTokenType == TokenType.SYMBOL && tokenizer.symbol() == ','){
+                eatTerminalSymbol(',');
+                expressions.add(parseExpression());
+            }
+        }
+        return expressions;
+    }
+
+    /**
+     * term:  integerConstant | stringConstant | keywordConstant | varName | varName '[' expression ']' |
+     *        subroutineCall | '(' expression ')' | unaryOp term
+     */
+    private Ast.Term parseTerm() throws IOException {
+        int position = tokenizer.position();
+        switch (currentTokenType){
+            case INT_CONSTANT -> {
+                int value = tokenizer.intVal();
+                advance();
+                return new Ast.IntegerConstant(value, position);
+            }
+            case STR_CONSTANT -> {
+                String value = tokenizer.stringVal();
+                advance();
+                return new Ast.StringConstant(value, position);
+            }
+            case KEYWORD -> {
+                String keyword = tokenizer.keyword();
+                if (KEYWORD_CONSTANTS.contains(keyword)){
+                    eatTerminalKeyword(keyword);
+                    return new Ast.KeywordConstant(keyword, position);
+                }
+            }
+            case SYMBOL -> {
+                char symbol = tokenizer.symbol();
+                if (UNARY_OPS.indexOf(symbol) >= 0){
+                    eatTerminalSymbol(symbol);
+                    int operandPosition = tokenizer.position();
+                    Ast.Term operand = parseTerm();
+                    return new Ast.Unary(symbol, operand, operandPosition, tokenizer.position());
+                } else if (symbol == '('){
+                    eatTerminalSymbol('(');
+                    Ast.Expression expression = parseExpression();
+                    eatTerminalSymbol(')');
+                    return new Ast.Parenthesized(expression);
+                }
+            }
+            case IDENTIFIER -> {
+                Ast.Name identifier = eatTerminalName();
+                int afterIdentifier = tokenizer.position();
+                char nextSymbol = tokenizer.symbol();
+                if (nextSymbol == '(') {
+                    return parseCall(null, identifier, afterIdentifier);
+                } else if (nextSymbol == '.'){
+                    return parseDottedCall(identifier, afterIdentifier);
+                } else if (nextSymbol == '['){
+                    eatTerminalSymbol('[');
+                    Ast.Expression index = parseExpression();
+                    eatTerminalSymbol(']');
+                    return new Ast.ArrayElement(identifier, index, afterIdentifier, tokenizer.position());
+                } else {
+                    return new Ast.Variable(identifier, afterIdentifier);
+                }
+            }
+        }
+        return new Ast.EmptyTerm();
+    }
+
+    /**
+     * '.' subroutineName '(' expressionList ')'
+     */
+    private Ast.Call parseDottedCall(Ast.Name target, int position) throws IOException {
+        eatTerminalSymbol('.');
+        Ast.Name name = eatTerminalName();
+        return parseCall(target, name, position);
+    }
+
+    /**
+     * '(' expressionList ')'
+     */
+    private Ast.Call parseCall(Ast.Name target, Ast.Name name, int position) throws IOException {
+        eatTerminalSymbol('(');
+        List<Ast.Expression> arguments = parseExpressionList();
+        eatTerminalSymbol(')');
+        return new Ast.Call(target, name, arguments, position, tokenizer.position());
+    }
+}
@@ -0,0 +1,164 @@
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * Shrinks the local segment of a function. Runs on the VMCode buffer of VMWriter like the PeepholeOptimizer: computes
+ * which locals are live after every instruction, then gives locals whose lifetimes never overlap the same slot and
+ * lowers the function's local count to match. Stores to a local that is never read go to temp 0 instead.
+ */
+public class LocalAllocator {
+
+    private int localsBefore = 0;
+    private int localsAfter = 0;
+
+    /**
+     * Renumbers the locals of the buffered function in place
+     * @param code the instructions of one function
+     */
+    public void allocate(VMCode code) {
+        int function = -1;
+        for (int i = 0; i < code.size(); i++) {
+            if (code.opcode(i) == VMCode.FUNCTION) {
+                function = i;
+                break;
+            }
+        }
+        if (function < 0) {
+            return; // text written before the first function
+        }
+        int nVars = code.operand(function);
+        localsBefore += nVars;
+        if (nVars == 0) {
+            return;
+        }
+
+        BitSet[] liveOut = liveness(code, function, nVars);
+
+        // locals that are written while another one is still needed can't share its slot
+        BitSet[] interference = new BitSet[nVars];
+        BitSet read = new BitSet(nVars);
+        for (int v = 0; v < nVars; v++) {
+            interference[v] = new BitSet(nVars);
+        }
+        for (int i = function + 1; i < code.size(); i++) {
+            if (isLocal(code, i, VMCode.POP)) {
+                int v = code.operand(i);
+                BitSet live = liveOut[i];
+                for (int u = live.nextSetBit(0); u >= 0; u = live.nextSetBit(u + 1)) {
+                    if (u != v) {
+                        interference[u].set(v);
+                        interference[v].set(u);
+                    }
+                }
+            } else if (isLocal(code, i, VMCode.PUSH)) {
+                read.set(code.operand(i));
+            }
+        }
+
+        // lowest free slot first, in declaration order
+        int[] slots = new int[nVars];
+        int slotCount = 0;
+        for (int v = 0; v < nVars; v++) {
+            if (!read.get(v)) {
+                slots[v] = -1;
+                continue;
+            }
+            BitSet taken = new BitSet();
+            for (int u = interference[v].nextSetBit(0); u >= 0 && u < v; u = interference[v].nextSetBit(u + 1)) {
+                if (slots[u] >= 0) {
+                    taken.set(slots[u]);
+                }
+            }
+            slots[v] = taken.nextClearBit(0);
+            slotCount = Math.max(slotCount, slots[v] + 1);
+        }
+
+        for (int i = function + 1; i < code.size(); i++) {
+            if (isLocal(code, i, VMCode.PUSH) || isLocal(code, i, VMCode.POP)) {
+                int slot = slots[code.operand(i)];
+                if (slot < 0) {
+                    code.set(i, VMCode.POP, Segment.TEMP.ordinal(), 0); // the value is never read
+                } else {
+                    code.set(i, code.opcode(i), Segment.LOCAL.ordinal(), slot);
+                }
+            }
+        }
+        code.set(function, VMCode.FUNCTION, code.arg(function), slotCount);
+        localsAfter += slotCount;
+    }
+
+    /**
+     * @return the locals declared by the functions since the counts were last reset
+     */
+    public int getLocalsBefore() {
+        return localsBefore;
+    }
+
+    /**
+     * @return the locals left since the counts were last reset
+     */
+    public int getLocalsAfter() {
+        return localsAfter;
+    }
+
+    public void resetCounts() {
+        localsBefore = 0;
+        localsAfter = 0;
+    }
+
+    private static boolean isLocal(VMCode code, int i, byte opcode) {
+        return code.opcode(i) == opcode && code.arg(i) == Segment.LOCAL.ordinal();
+    }
+
+    /**
+     * Backwards dataflow over the function's control flow, repeated until nothing changes
+     * @return the locals whose current value is read later, for every instruction
+     */
+    private static BitSet[] liveness(VMCode code, int function, int nVars) {
+        HashMap<Integer, Integer> labels = new HashMap<>(); // label name id -> index
+        for (int i = function + 1; i < code.size(); i++) {
+            if (code.opcode(i) == VMCode.LABEL) {
+                labels.put(code.arg(i), i);
+            }
+        }
+        int size = code.size();
+        BitSet[] liveIn = new BitSet[size + 1];
+        BitSet[] liveOut = new BitSet[size];
+        for (int i = 0; i <= size; i++) {
+            liveIn[i] = new BitSet(nVars);
+        }
+        for (int i = 0; i < size; i++) {
+            liveOut[i] = new BitSet(nVars);
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = size - 1; i > function; i--) {
+                BitSet out = new BitSet(nVars);
+                byte opcode = code.opcode(i);
+                if (opcode == VMCode.GOTO || opcode == VMCode.IF_GOTO) {
+                    Integer target = labels.get(code.arg(i));
+                    if (target != null) {
+                        out.or(liveIn[target]);
+                    }
+                }
+                if (opcode != VMCode.GOTO && opcode != VMCode.RETURN) {
+                    out.or(liveIn[i + 1]);
+                }
+                BitSet in = (BitSet) out.clone();
+                if (isLocal(code, i, VMCode.POP)) {
+                    in.clear(code.operand(i));
+                } else if (isLocal(code, i, VMCode.PUSH)) {
+                    in.set(code.operand(i));
+                }
+                if (!in.equals(liveIn[i]) || !out.equals(liveOut[i])) {
+                    liveIn[i] = in;
+                    liveOut[i] = out;
+                    changed = true;
+                }
+            }
+        }
+        return liveOut;
+    }
+}
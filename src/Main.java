@@ -2,15 +2,89 @@ import java.io.*;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
 
 public class Main {
     public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--server")){
+            serve(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--generate")){
+            generate(args);
+            return;
+        }
         String projectNumber = "11\\";
         String inputDirectory = "Projects\\" + projectNumber;
         String outputDirectory = "Output\\Project" + projectNumber;
         File[] filesList; // for use with CompilationEngine
         File[] xmlFilesList; // for use with FileCompare
         File toTranslate = new File(inputDirectory + args[0]); // filename is args[0]
+        boolean lexOnly = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean incremental = false;
+        boolean watch = false;
+        String serverSocket = null;
+        boolean quiet = false;
+        OutputMode outputMode = OutputMode.ALL;
+        EnumSet<PeepholeOptimizer.Rule> peepholeRules = null;
+        boolean foldConstants = false;
+        boolean strengthReduction = false;
+        int multiplyBudget = 24;
+        boolean poolStrings = false;
+        List<String> roots = null;
+        int inlineThreshold = 0;
+        boolean reuseLocals = false;
+        boolean symbolTables = true;
+        boolean run = false;
+        String input = "";
+        List<int[]> pokes = new ArrayList<>();
+        int[] peekRange = null;
+        long maxInstructions = Long.MAX_VALUE;
+        Boolean fuseAsm = null;
+        long maxCycles = Long.MAX_VALUE;
+        for (int i = 1; i < args.length; i++){
+            switch (args[i]){
+                case "--lex-only" -> lexOnly = true; // only write the T.xml token files
+                case "--threads" -> threads = Integer.parseInt(args[++i]); // files compiled at once
+                case "--incremental" -> incremental = true; // skip files unchanged since the last build
+                case "--watch" -> watch = true; // keep running and recompile files as they change
+                case "--client" -> serverSocket = args[++i]; // send the request to a running compile server
+                case "--quiet" -> quiet = true; // don't print every token
+                case "--output" -> outputMode = parseOutputMode(args[++i]); // vm, parse, tokens or all
+                case "--optimize" -> { // every optimization
+                    peepholeRules = EnumSet.allOf(PeepholeOptimizer.Rule.class);
+                    foldConstants = true;
+                    strengthReduction = true;
+                    reuseLocals = true;
+                }
+                case "--fold-constants" -> foldConstants = true;
+                case "--pool-strings" -> poolStrings = true; // build each string literal once per class
+                case "--whole-program" -> roots = List.of("Main.main"); // drop functions Main.main never reaches
+                case "--roots" -> roots = List.of(args[++i].split(",")); // e.g. Main.main,Sys.init
+                case "--reuse-locals" -> reuseLocals = true; // share local slots, drop unused locals
+                case "--no-symbol-tables" -> symbolTables = false; // leave the variable table comments out of the .vm files
+                case "--inline" -> inlineThreshold = Integer.parseInt(args[++i]); // max instructions per inlined function
+                case "--strength-reduction" -> strengthReduction = true; // inline Math.multiply by constants
+                case "--no-strength-reduction" -> strengthReduction = false; // always call Math.multiply and Math.divide
+                case "--multiply-budget" -> { // instructions per inlined *
+                    strengthReduction = true;
+                    multiplyBudget = Integer.parseInt(args[++i]);
+                }
+                case "--run" -> run = true; // run the compiled program and count the instructions it executes
+                case "--input" -> input = args[++i].replace("\\n", "\n"); // keyboard input for --run
+                case "--ram" -> pokes.add(parseRam(args[++i])); // e.g. 8000=5, set before --run starts
+                case "--peek" -> peekRange = parseRange(args[++i]); // e.g. 8001-8016, printed after --run
+                case "--max-instructions" -> maxInstructions = Long.parseLong(args[++i]); // stop --run after this many
+                case "--asm" -> fuseAsm = true; // also write Hack assembly, fusing common instruction sequences
+                case "--asm-plain" -> fuseAsm = false; // also write Hack assembly, one VM command at a time
+                case "--max-cycles" -> maxCycles = Long.parseLong(args[++i]); // stop the Hack CPU of --run after this many
+                case "--optimize-rules" -> peepholeRules = PeepholeOptimizer.parseRules(args[++i]); // e.g. dead_code,double_not
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
         if (!toTranslate.exists()){
             throw new FileNotFoundException("Not found");
         }
@@ -30,23 +104,268 @@ public class Main {
             xmlFilesList = new File[]{toTranslate};
         }
 
-        if (filesList != null) {
-            CompilationEngine engine = new CompilationEngine();
+        CompilerDriver driver = new CompilerDriver(inputDirectory, outputDirectory, threads);
+        if (incremental) {
+            driver.setIncremental();
+        }
+        if (quiet) {
+            driver.setQuiet();
+        }
+        driver.setOutputMode(outputMode);
+        if (peepholeRules != null) {
+            driver.setOptimize(peepholeRules);
+        }
+        if (foldConstants) {
+            driver.setFoldConstants();
+        }
+        if (strengthReduction) {
+            driver.setStrengthReduction();
+        }
+        driver.setMultiplyBudget(multiplyBudget);
+        if (poolStrings) {
+            driver.setPoolStrings();
+        }
+        if (roots != null) {
+            driver.setWholeProgram(roots);
+        }
+        driver.setInlineThreshold(inlineThreshold);
+        if (reuseLocals) {
+            driver.setReuseLocals();
+        }
+        if (!symbolTables) {
+            driver.setNoSymbolTables();
+        }
+        if (fuseAsm != null) {
+            driver.setAsm(fuseAsm);
+        }
+        if ((watch || serverSocket != null) && (roots != null || inlineThreshold > 0)) {
+            throw new IllegalArgumentException("Whole program builds can't be watched or sent to a compile server");
+        }
+
+        if (watch) {
+            if (!toTranslate.isDirectory()){
+                throw new IllegalArgumentException("--watch needs a directory");
+            }
+            new WatchCompiler(toTranslate.toPath(), inputDirectory, outputDirectory, driver, 100).run();
+            return;
+        }
+
+        if (filesList != null && serverSocket != null) {
+            if (!CompileServer.forward(Path.of(serverSocket), inputDirectory, outputDirectory, driver.getOptions(),
+                    filesList)){
+                throw new IOException("Compile server reported failures");
+            }
+            return;
+        }
+
+        if (filesList != null && lexOnly) {
             for (File f:filesList){
-                System.out.println(f.getPath());
-                engine.init(f.getPath(), inputDirectory, outputDirectory);
-                engine.setGenerateTokenXML();
-                engine.compileClass();
-                engine.close();
+                lexFile(f.getPath(), inputDirectory, outputDirectory);
             }
+            return;
+        }
+
+        if (filesList != null) {
+            driver.compile(filesList);
         }
 
         if (xmlFilesList != null){
             for (File x:xmlFilesList){
+                if (!new File(x.getPath().replace(inputDirectory, outputDirectory)).exists()){
+                    continue; // not generated in this output mode
+                }
                 FileCompare compare = new FileCompare(x.getPath().replace(inputDirectory, outputDirectory), x.getPath());
                 compare.compare();
                 compare.close();
             }
         }
+
+        if (run) {
+            File compiled = new File((outputDirectory + args[0]).replace(".jack", ".vm"));
+            VMInterpreter interpreter = runProgram(compiled, input, pokes, peekRange, maxInstructions);
+            if (fuseAsm != null) {
+                runAsm(compiled, input, pokes, maxCycles, interpreter);
+            }
+        }
+    }
+
+    /**
+     * Runs a compiled program in VMInterpreter and prints its output and instruction counts
+     * @param compiled a .vm file or a directory of them
+     * @param input keyboard input
+     * @param pokes address, value pairs written to RAM before the run
+     * @param peekRange first and last address printed after the run, or null
+     * @param maxInstructions instructions to run before stopping
+     * @return the interpreter after the run
+     * @throws IOException if a .vm file can't be read
+     */
+    private static VMInterpreter runProgram(File compiled, String input, List<int[]> pokes, int[] peekRange,
+                                   long maxInstructions) throws IOException {
+        VMInterpreter interpreter = new VMInterpreter();
+        interpreter.load(compiled);
+        interpreter.setInput(input);
+        interpreter.setMaxInstructions(maxInstructions);
+        for (int[] poke : pokes){
+            interpreter.poke(poke[0], poke[1]);
+        }
+        long start = System.nanoTime();
+        boolean finished = interpreter.run();
+        long micros = Math.max((System.nanoTime() - start) / 1000, 1);
+        System.out.println(interpreter.getOutput());
+        if (!finished){
+            System.out.println("Stopped after " + maxInstructions + " instructions");
+        }
+        if (peekRange != null){
+            for (int address = peekRange[0]; address <= peekRange[1]; address++){
+                System.out.println("RAM[" + address + "] = " + interpreter.peek(address));
+            }
+        }
+        interpreter.report(System.out);
+        System.out.println("Ran in " + micros + "us, " + interpreter.getInstructionCount() / micros + "M instructions/s");
+        return interpreter;
+    }
+
+    /**
+     * Runs the compiled program's assembly on HackComputer, then checks that it printed the same and left the same
+     * heap and screen as the VM code did
+     * @param compiled a directory of .asm files or a single one, named like the .vm output
+     * @param interpreter the VM run to compare with
+     * @throws IOException if an .asm file can't be read
+     */
+    private static void runAsm(File compiled, String input, List<int[]> pokes, long maxCycles,
+                               VMInterpreter interpreter) throws IOException {
+        HackComputer computer = new HackComputer();
+        computer.load(new File(compiled.getPath().replace(".vm", ".asm")));
+        computer.setInput(input);
+        computer.setMaxCycles(maxCycles);
+        for (int[] poke : pokes){
+            computer.poke(poke[0], poke[1]);
+        }
+        boolean finished = computer.run();
+        computer.report(System.out);
+        if (!finished){
+            System.out.println("Hack CPU stopped after " + maxCycles + " cycles, not compared with the VM");
+            return;
+        }
+        boolean same = computer.getOutput().equals(interpreter.getOutput());
+        for (int address = JackOS.HEAP; address < JackOS.KEYBOARD && same; address++){
+            same = computer.peek(address) == interpreter.peek(address);
+        }
+        System.out.println(same ? "Hack CPU matches the VM" : "Hack CPU differs from the VM");
+    }
+
+    private static int[] parseRam(String assignment){
+        String[] parts = assignment.split("=");
+        if (parts.length != 2){
+            throw new IllegalArgumentException("--ram needs address=value: " + assignment);
+        }
+        return new int[]{Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};
+    }
+
+    private static int[] parseRange(String range){
+        String[] parts = range.split("-");
+        int first = Integer.parseInt(parts[0]);
+        return new int[]{first, parts.length > 1 ? Integer.parseInt(parts[1]) : first};
+    }
+
+    private static OutputMode parseOutputMode(String mode){
+        switch (mode){
+            case "vm" -> {
+                return OutputMode.VM;
+            }
+            case "parse" -> {
+                return OutputMode.VM_PARSE_XML;
+            }
+            case "tokens" -> {
+                return OutputMode.VM_TOKEN_XML;
+            }
+            case "all" -> {
+                return OutputMode.ALL;
+            }
+            default -> throw new IllegalArgumentException("Unknown output mode: " + mode);
+        }
+    }
+
+    /**
+     * --server socketPath [--idle-timeout seconds] [--threads n]
+     * @throws IOException if the socket can't be created
+     */
+    private static void serve(String[] args) throws IOException {
+        if (args.length < 2){
+            throw new IllegalArgumentException("--server needs a socket path");
+        }
+        long idleTimeoutSeconds = 600;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 2; i < args.length; i++){
+            switch (args[i]){
+                case "--idle-timeout" -> idleTimeoutSeconds = Long.parseLong(args[++i]);
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        new CompileServer(Path.of(args[1]), idleTimeoutSeconds * 1000, threads).run();
+    }
+
+    /**
+     * --generate directory [--shape name] [--seed n] [--classes n] [--subroutines n] [--fields n] [--statics n]
+     * [--statements n] [--depth n] [--expression-length n] [--string-length n] [--array-depth n]
+     * The shape picks the starting settings, the other options override them, see CorpusGenerator
+     * @throws IOException if a file can't be written
+     */
+    private static void generate(String[] args) throws IOException {
+        if (args.length < 2){
+            throw new IllegalArgumentException("--generate needs an output directory");
+        }
+        String shape = "default";
+        long seed = 1;
+        for (int i = 2; i < args.length; i += 2){
+            switch (args[i]){
+                case "--shape" -> shape = args[i + 1];
+                case "--seed" -> seed = Long.parseLong(args[i + 1]);
+                default -> {
+                }
+            }
+        }
+        CorpusGenerator generator = CorpusGenerator.shape(shape, seed);
+        for (int i = 2; i < args.length; i += 2){
+            if (i + 1 == args.length){
+                throw new IllegalArgumentException(args[i] + " needs a value");
+            }
+            switch (args[i]){
+                case "--shape", "--seed" -> {
+                }
+                case "--classes" -> generator.setClasses(Integer.parseInt(args[i + 1]));
+                case "--subroutines" -> generator.setSubroutines(Integer.parseInt(args[i + 1])); // per class
+                case "--fields" -> generator.setFields(Integer.parseInt(args[i + 1]));
+                case "--statics" -> generator.setStatics(Integer.parseInt(args[i + 1]));
+                case "--statements" -> generator.setStatements(Integer.parseInt(args[i + 1])); // per subroutine
+                case "--depth" -> generator.setDepth(Integer.parseInt(args[i + 1])); // of nested if and while
+                case "--expression-length" -> generator.setExpressionLength(Integer.parseInt(args[i + 1]));
+                case "--string-length" -> generator.setStringLength(Integer.parseInt(args[i + 1]));
+                case "--array-depth" -> generator.setArrayDepth(Integer.parseInt(args[i + 1]));
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        long bytes = generator.write(Path.of(args[1]));
+        System.out.println("Wrote " + bytes + " characters of Jack to " + args[1]);
+    }
+
+    /**
+     * Lexes a single file into a TokenStream and writes its T.xml without parsing it
+     * @param fileName the relative file path of the file in the main project directory
+     * @param inputDirectory The directory containing the files to translate
+     * @param outputDirectory The output directory for the translated files
+     * @throws IOException if file not found
+     */
+    private static void lexFile(String fileName, String inputDirectory, String outputDirectory) throws IOException {
+        long start = System.nanoTime();
+        TokenStream tokens = new TokenStream(new SourceBuffer(fileName));
+        String output = fileName.replace(inputDirectory, outputDirectory).replace(".jack", "T.xml");
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(output))) {
+            writer.write("<tokens>\n");
+            tokens.writeTokens(writer);
+            writer.write("</tokens>\n");
+        }
+        System.out.println(fileName + ": " + tokens.size() + " tokens in " + (System.nanoTime() - start) / 1000 + "us");
     }
 }
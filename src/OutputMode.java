@@ -0,0 +1,21 @@
+public enum OutputMode {
+    VM,
+    VM_PARSE_XML,
+    VM_TOKEN_XML,
+    ALL;
+
+    public boolean parseXML() {
+        return this == VM_PARSE_XML || this == ALL;
+    }
+
+    public boolean tokenXML() {
+        return this == VM_TOKEN_XML || this == ALL;
+    }
+
+    /**
+     * Equivalent modes for the before and after of turning token xml on
+     */
+    public OutputMode withTokenXML() {
+        return parseXML() ? ALL : VM_TOKEN_XML;
+    }
+}
@@ -0,0 +1,235 @@
+import java.util.EnumSet;
+import java.util.HashSet;
+
+/**
+ * Rewrites short instruction sequences of a single function into cheaper equivalents. Runs on the VMCode buffer of
+ * VMWriter before it is serialized, repeating the enabled rules until none of them finds anything more to do.
+ */
+public class PeepholeOptimizer {
+
+    public enum Rule {
+        DOUBLE_NOT,         // not, not                                     -> (nothing)
+        CONSTANT_CONDITION, // push constant k, (neg|not)*, if-goto L      -> goto L, or nothing when false
+        JUMP_TO_NEXT,       // goto L, label L                             -> label L
+        DEAD_CODE,          // return or goto, anything up to the next label -> return or goto
+        ARRAY_STORE,        // push x, pop temp 0, pop pointer 1, push temp 0, pop that 0
+                            //                                             -> pop pointer 1, push x, pop that 0
+        UNUSED_LABEL        // label nothing jumps to                      -> (nothing)
+    }
+
+    private final EnumSet<Rule> rules;
+    private int instructionsBefore = 0;
+    private int instructionsAfter = 0;
+
+    public PeepholeOptimizer() {
+        this(EnumSet.allOf(Rule.class));
+    }
+
+    public PeepholeOptimizer(EnumSet<Rule> rules) {
+        this.rules = EnumSet.copyOf(rules);
+    }
+
+    /**
+     * Optimizes the buffered function in place
+     * @param code the instructions of one function
+     */
+    public void optimize(VMCode code) {
+        instructionsBefore += code.instructionCount();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            if (rules.contains(Rule.DOUBLE_NOT)) changed |= doubleNot(code);
+            if (rules.contains(Rule.CONSTANT_CONDITION)) changed |= constantCondition(code);
+            if (rules.contains(Rule.JUMP_TO_NEXT)) changed |= jumpToNext(code);
+            if (rules.contains(Rule.DEAD_CODE)) changed |= deadCode(code);
+            if (rules.contains(Rule.ARRAY_STORE)) changed |= arrayStore(code);
+            if (rules.contains(Rule.UNUSED_LABEL)) changed |= unusedLabel(code);
+        }
+        instructionsAfter += code.instructionCount();
+    }
+
+    /**
+     * @param names comma separated rule names, case insensitive, e.g. "double_not,dead_code"
+     * @return the named rules
+     */
+    public static EnumSet<Rule> parseRules(String names) {
+        EnumSet<Rule> rules = EnumSet.noneOf(Rule.class);
+        for (String name : names.split(",")) {
+            try {
+                rules.add(Rule.valueOf(name.trim().toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown peephole rule: " + name);
+            }
+        }
+        return rules;
+    }
+
+    public EnumSet<Rule> getRules() {
+        return EnumSet.copyOf(rules);
+    }
+
+    /**
+     * @return instructions seen since the counts were last reset
+     */
+    public int getInstructionsBefore() {
+        return instructionsBefore;
+    }
+
+    /**
+     * @return instructions left since the counts were last reset
+     */
+    public int getInstructionsAfter() {
+        return instructionsAfter;
+    }
+
+    public void resetCounts() {
+        instructionsBefore = 0;
+        instructionsAfter = 0;
+    }
+
+    private static boolean isArithmetic(VMCode code, int i, Ops op) {
+        return code.opcode(i) == VMCode.ARITHMETIC && code.arg(i) == op.ordinal();
+    }
+
+    private static boolean isAccess(VMCode code, int i, byte opcode, Segment seg, int index) {
+        return code.opcode(i) == opcode && code.arg(i) == seg.ordinal() && code.operand(i) == index;
+    }
+
+    private static void remove(VMCode code, int i) {
+        code.set(i, VMCode.NOP, 0, 0);
+    }
+
+    private boolean doubleNot(VMCode code) {
+        boolean changed = false;
+        for (int i = 0; i + 1 < code.size(); i++) {
+            if (isArithmetic(code, i, Ops.NOT) && isArithmetic(code, i + 1, Ops.NOT)) {
+                remove(code, i);
+                remove(code, i + 1);
+                i++;
+                changed = true;
+            }
+        }
+        code.compact();
+        return changed;
+    }
+
+    private boolean constantCondition(VMCode code) {
+        boolean changed = false;
+        for (int i = 0; i < code.size(); i++) {
+            if (code.opcode(i) != VMCode.PUSH || code.arg(i) != Segment.CONSTANT.ordinal()) {
+                continue;
+            }
+            // evaluate any neg/not applied to the constant with 16 bit wraparound
+            int value = code.operand(i) & 0xFFFF;
+            int j = i + 1;
+            while (j < code.size() && (isArithmetic(code, j, Ops.NEG) || isArithmetic(code, j, Ops.NOT))) {
+                value = (isArithmetic(code, j, Ops.NEG) ? -value : ~value) & 0xFFFF;
+                j++;
+            }
+            if (j < code.size() && code.opcode(j) == VMCode.IF_GOTO) {
+                for (int k = i; k < j; k++) {
+                    remove(code, k);
+                }
+                if (value == 0) {
+                    remove(code, j); // never taken
+                } else {
+                    code.set(j, VMCode.GOTO, code.arg(j), 0); // always taken
+                }
+                i = j;
+                changed = true;
+            }
+        }
+        code.compact();
+        return changed;
+    }
+
+    private boolean jumpToNext(VMCode code) {
+        boolean changed = false;
+        for (int i = 0; i < code.size(); i++) {
+            byte opcode = code.opcode(i);
+            if (opcode != VMCode.GOTO && opcode != VMCode.IF_GOTO) {
+                continue;
+            }
+            // falling through any run of labels reaches the same place as jumping to one of them
+            for (int j = i + 1; j < code.size() && code.opcode(j) == VMCode.LABEL; j++) {
+                if (code.arg(j) == code.arg(i)) {
+                    if (opcode == VMCode.GOTO) {
+                        remove(code, i);
+                    } else {
+                        code.set(i, VMCode.POP, Segment.TEMP.ordinal(), 0); // the condition still has to go
+                    }
+                    changed = true;
+                    break;
+                }
+            }
+        }
+        code.compact();
+        return changed;
+    }
+
+    private boolean deadCode(VMCode code) {
+        boolean changed = false;
+        for (int i = 0; i < code.size(); i++) {
+            if (code.opcode(i) != VMCode.RETURN && code.opcode(i) != VMCode.GOTO) {
+                continue;
+            }
+            int j = i + 1;
+            while (j < code.size() && code.opcode(j) != VMCode.LABEL && code.opcode(j) != VMCode.FUNCTION) {
+                if (code.isInstruction(j)) {
+                    remove(code, j); // comments and raw text are kept
+                    changed = true;
+                }
+                j++;
+            }
+            i = j - 1;
+        }
+        code.compact();
+        return changed;
+    }
+
+    private boolean arrayStore(VMCode code) {
+        boolean changed = false;
+        for (int i = 0; i + 4 < code.size(); i++) {
+            if (code.opcode(i) != VMCode.PUSH
+                    || !isAccess(code, i + 1, VMCode.POP, Segment.TEMP, 0)
+                    || !isAccess(code, i + 2, VMCode.POP, Segment.POINTER, 1)
+                    || !isAccess(code, i + 3, VMCode.PUSH, Segment.TEMP, 0)
+                    || !isAccess(code, i + 4, VMCode.POP, Segment.THAT, 0)) {
+                continue;
+            }
+            int seg = code.arg(i);
+            // the value is now read after THAT moves, so it can't depend on THAT
+            if (seg == Segment.THAT.ordinal() || seg == Segment.POINTER.ordinal() || seg == Segment.TEMP.ordinal()) {
+                continue;
+            }
+            int index = code.operand(i);
+            code.set(i, VMCode.POP, Segment.POINTER.ordinal(), 1);
+            code.set(i + 1, VMCode.PUSH, seg, index);
+            code.set(i + 2, VMCode.POP, Segment.THAT.ordinal(), 0);
+            remove(code, i + 3);
+            remove(code, i + 4);
+            i += 4;
+            changed = true;
+        }
+        code.compact();
+        return changed;
+    }
+
+    private boolean unusedLabel(VMCode code) {
+        HashSet<Integer> targets = new HashSet<>();
+        for (int i = 0; i < code.size(); i++) {
+            if (code.opcode(i) == VMCode.GOTO || code.opcode(i) == VMCode.IF_GOTO) {
+                targets.add(code.arg(i));
+            }
+        }
+        boolean changed = false;
+        for (int i = 0; i < code.size(); i++) {
+            if (code.opcode(i) == VMCode.LABEL && !targets.contains(code.arg(i))) {
+                remove(code, i);
+                changed = true;
+            }
+        }
+        code.compact();
+        return changed;
+    }
+}
@@ -0,0 +1,125 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Holds the entire contents of a .jack file in memory so the tokenizer can scan it with an index instead of
+ * pulling one character at a time through a Reader.
+ */
+public class SourceBuffer {
+
+    private final char[] chars;
+    private final int length;
+    private int position = 0;
+
+    /**
+     * Loads the whole file into memory
+     * @param fileName the path of the file to load
+     * @throws IOException if the file can't be read
+     */
+    public SourceBuffer(String fileName) throws IOException {
+        ByteBuffer bytes;
+        // read onto the heap rather than memory mapped: a live mapping keeps Windows from replacing the file, which
+        // watch mode and the compile server would otherwise hold on to
+        try (FileChannel channel = FileChannel.open(Path.of(fileName), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large: " + fileName);
+            }
+            bytes = ByteBuffer.allocate((int) size);
+            while (bytes.hasRemaining() && channel.read(bytes) != -1) {
+                // single bulk read, loop only covers short reads
+            }
+            bytes.flip();
+        }
+        chars = decode(bytes);
+        length = chars.length;
+    }
+
+    private SourceBuffer(char[] chars) {
+        this.chars = chars;
+        this.length = chars.length;
+    }
+
+    /**
+     * @param source Jack source code already in memory
+     * @return a buffer holding a copy of the source
+     */
+    public static SourceBuffer of(CharSequence source) {
+        char[] chars = new char[source.length()];
+        if (source instanceof String s) {
+            s.getChars(0, chars.length, chars, 0);
+        } else {
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = source.charAt(i);
+            }
+        }
+        return new SourceBuffer(chars);
+    }
+
+    /**
+     * @param bytes encoded Jack source, read from its position to its limit without moving either
+     * @return a buffer holding the decoded source
+     */
+    public static SourceBuffer of(ByteBuffer bytes) {
+        return new SourceBuffer(decode(bytes.slice()));
+    }
+
+    /**
+     * ASCII fast path: every byte below 0x80 maps straight to a char, so the charset decoder is only used when
+     * a non-ASCII byte is found.
+     */
+    private static char[] decode(ByteBuffer bytes) {
+        int size = bytes.remaining();
+        char[] out = new char[size];
+        for (int i = 0; i < size; i++) {
+            byte b = bytes.get(i);
+            if (b < 0) {
+                // same charset FileReader would have used
+                CharBuffer decoded = Charset.defaultCharset().decode(bytes.duplicate());
+                char[] result = new char[decoded.remaining()];
+                decoded.get(result);
+                return result;
+            }
+            out[i] = (char) b;
+        }
+        return out;
+    }
+
+    /**
+     * Reads the next character, mirroring Reader.read()
+     * @return the next character or -1 at the end of the buffer
+     */
+    public int read() {
+        if (position < length) {
+            return chars[position++];
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index of the next character read() will return
+     */
+    public int position() {
+        return position;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public char charAt(int index) {
+        return chars[index];
+    }
+
+    /**
+     * @return the backing array, which is not copied and must not be modified
+     */
+    public char[] array() {
+        return chars;
+    }
+}
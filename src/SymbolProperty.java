@@ -1,14 +1,26 @@
 public class SymbolProperty {
+    private final int id;
+    private final String name;
     private final String type;
     private final int index;
     private final SymbolTable.kind kind;
 
-    public SymbolProperty(String type, SymbolTable.kind kind, int index){
+    public SymbolProperty(int id, String name, String type, SymbolTable.kind kind, int index){
+        this.id = id;
+        this.name = name;
         this.type = type;
         this.kind = kind;
         this.index = index;
     }
 
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
     public String getType() {
         return type;
     }
@@ -21,6 +33,10 @@ public class SymbolProperty {
         return kind;
     }
 
+    public Segment getSegment() {
+        return kind.segment();
+    }
+
     public String formattedString(int longestType){
         StringBuilder symbolProperties = new StringBuilder();
 
@@ -1,15 +1,36 @@
-import java.util.HashMap;
+import java.util.Arrays;
 
+/**
+ * The variables of one scope, keyed by the id the TokenStream interned each name under. Every kind also keeps its
+ * symbols in an array ordered by index, so the table comment is written in one pass over them.
+ */
 public class SymbolTable {
 
     enum kind {
-        STATIC,
-        FIELD,
-        ARG,
-        VAR,
-        NONE
+        STATIC(Segment.STATIC, "static   "),
+        FIELD(Segment.THIS, "this     "),
+        ARG(Segment.ARGUMENT, "argument "),
+        VAR(Segment.LOCAL, "local    "),
+        NONE(null, null);
+
+        private final Segment segment;
+        private final String segmentName; // padded for the table comment
+
+        kind(Segment segment, String segmentName){
+            this.segment = segment;
+            this.segmentName = segmentName;
+        }
+
+        /**
+         * @return the VM segment variables of this kind live in, null for NONE
+         */
+        public Segment segment(){
+            return segment;
+        }
     }
 
+    private static final kind[] KINDS = {kind.STATIC, kind.FIELD, kind.ARG, kind.VAR};
+
     private String name;
     private int loopCount = 0;
     private int ifElseCount = 0;
@@ -17,20 +38,21 @@ public class SymbolTable {
     private int longestName = 0;
     private int longestType = 0;
 
-    private final HashMap<String, SymbolProperty> table = new HashMap<>();
-    private final HashMap<kind, Integer> varIndexes = new HashMap<>(); // Tally of each kind
-
-    public SymbolTable(){
-        varIndexes.put(kind.STATIC, 0);
-        varIndexes.put(kind.FIELD, 0);
-        varIndexes.put(kind.ARG, 0);
-        varIndexes.put(kind.VAR, 0);
-    }
-
+    private SymbolProperty[] table = new SymbolProperty[64]; // by identifier id
+    private final int[] varCounts = new int[KINDS.length]; // Tally of each kind
+    // per kind by index, null where a name was defined again and the table lost the earlier entry
+    private final SymbolProperty[][] symbols = new SymbolProperty[KINDS.length][8];
 
     public void reset(){
-        table.clear();
-        varIndexes.replaceAll((k, v) -> 0);
+        for (int k = 0; k < KINDS.length; k++){
+            for (int i = 0; i < varCounts[k]; i++){
+                if (symbols[k][i] != null && symbols[k][i].getId() >= 0){
+                    table[symbols[k][i].getId()] = null;
+                }
+            }
+            Arrays.fill(symbols[k], 0, varCounts[k], null);
+            varCounts[k] = 0;
+        }
 
         loopCount = 0;
         ifElseCount = 0;
@@ -38,24 +60,43 @@ public class SymbolTable {
         longestType = 0;
     }
 
-    public void define(String name, String type, kind kind){
+    /**
+     * @param id the interned id of the name, -1 for this which is a keyword and never looked up
+     */
+    public void define(int id, String name, String type, kind kind){
 
         if (name.length() > longestName) longestName = name.length();
         if (type.length() > longestType) longestType = type.length();
 
-        table.put(name, new SymbolProperty(type, kind, varIndexes.get(kind)));
-        varIndexes.put(kind, varIndexes.get(kind) + 1); // increment tally of defined kind
+        int k = kind.ordinal();
+        SymbolProperty symbol = new SymbolProperty(id, name, type, kind, varCounts[k]);
+        if (id >= 0){
+            if (id >= table.length){
+                table = Arrays.copyOf(table, Math.max(id + 1, table.length * 2));
+            }
+            SymbolProperty replaced = table[id];
+            if (replaced != null){
+                symbols[replaced.getKind().ordinal()][replaced.getIndex()] = null;
+            }
+            table[id] = symbol;
+        }
+        if (varCounts[k] == symbols[k].length){
+            symbols[k] = Arrays.copyOf(symbols[k], varCounts[k] * 2);
+        }
+        symbols[k][varCounts[k]] = symbol;
+        varCounts[k]++; // increment tally of defined kind
     }
 
     public int varCount(kind kind){
-        return varIndexes.get(kind);
+        return varCounts[kind.ordinal()];
     }
 
-    public kind kindOf(String name){
-        if (!table.containsKey(name)){
-            return kind.NONE;
-        }
-        return table.get(name).getKind();
+    /**
+     * @param id the interned id of the name
+     * @return the symbol's kind, type and index, null if the name isn't in this scope
+     */
+    public SymbolProperty lookup(int id){
+        return id < table.length ? table[id] : null;
     }
 
     public String getFormattedTable(){
@@ -63,9 +104,22 @@ public class SymbolTable {
 
         formattedTable.append("/*\n");
 
-        for (kind k:kind.values()){
-            if (k != kind.NONE && varIndexes.get(k) > 0){ // only look if there's at least one declared variable
-                formattedTable.append(getPropertiesOfKind(k, varCount(k)));
+        for (kind k : KINDS){
+            SymbolProperty[] ofKind = symbols[k.ordinal()];
+            for (int i = 0; i < varCounts[k.ordinal()]; i++){
+                SymbolProperty varProperties = ofKind[i];
+                if (varProperties == null){
+                    continue;
+                }
+                formattedTable.append(varProperties.formattedString(longestType));
+
+                int namePadding = longestName - varProperties.getName().length() + 1;
+
+                formattedTable.append(varProperties.getName())
+                        .append(" ".repeat(namePadding))
+                        .append("-> ").append(k.segmentName)
+                        .append(i)
+                        .append("\n");
             }
         }
 
@@ -74,10 +128,6 @@ public class SymbolTable {
         return formattedTable.toString();
     }
 
-    public boolean contains(String varName){
-        return table.containsKey(varName);
-    }
-
     /**
      *
      * @return THE NAME OF THE CURRENT SUBROUTINE
@@ -90,53 +140,8 @@ public class SymbolTable {
         this.name = name;
     }
 
-    public String typeOf(String name){
-        return table.get(name).getType();
-    }
-
-    public int indexOf(String name){
-        return table.get(name).getIndex();
-    }
-
-
-
-
-    public String getPropertiesOfVar(String var){
-        return " (" + table.get(var) + ")";
-    }
-
-    private String getPropertiesOfKind(kind varKind, int varCount){
-        StringBuilder s = new StringBuilder();
-
-        for (int i = 0; i < varCount; i++){
-            for (String varName: table.keySet()){
-                SymbolProperty varProperties = table.get(varName);
-                if ((varProperties.getKind() == varKind) && (varProperties.getIndex() == i)){
-                    s.append(varProperties.formattedString(longestType));
-
-                    int namePadding = longestName - varName.length() + 1;
-
-                    s.append(varName)
-                            .append(" ".repeat(namePadding))
-                            .append("-> ").append(kindToSegment(varKind))
-                            .append(i)
-                            .append("\n");
-                }
-            }
-        }
-
-        return s.toString();
-    }
-
-    private String kindToSegment(kind k){
-        String segment = null;
-        switch (k) {
-            case FIELD -> segment =  "this     ";
-            case STATIC -> segment = "static   ";
-            case VAR -> segment =    "local    ";
-            case ARG -> segment =    "argument ";
-        }
-        return segment;
+    public String getPropertiesOfVar(int id){
+        return " (" + table[id] + ")";
     }
 
     public int getLoopCount() {
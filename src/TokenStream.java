@@ -0,0 +1,283 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * A whole .jack file lexed up front into parallel int arrays. Token i is described by types[i], starts[i],
+ * lengths[i], lines[i] and values[i], where the value is the keyword index, the integer value or the interned
+ * identifier id depending on the type. Block comments are kept apart so lookahead only ever sees real tokens.
+ */
+public class TokenStream {
+
+    private final char[] source;
+
+    private int size = 0;
+    private int[] types;
+    private int[] starts;
+    private int[] lengths;
+    private int[] lines;
+    private int[] values;
+
+    // index of the first token after which the lexer had reached the end of the input
+    private int endIndex;
+
+    private int commentCount = 0;
+    private int[] commentStarts = new int[4];
+    private int[] commentLengths = new int[4];
+    private int[] commentTokens = new int[4]; // index of the token each comment comes before
+
+    // interned identifiers, open addressing table holding id + 1
+    private String[] identifiers = new String[64];
+    private int identifierCount = 0;
+    private int[] identifierSlots = new int[128];
+
+    public TokenStream(SourceBuffer sourceBuffer) {
+        source = sourceBuffer.array();
+        int capacity = Math.max(16, sourceBuffer.length() / 4);
+        types = new int[capacity];
+        starts = new int[capacity];
+        lengths = new int[capacity];
+        lines = new int[capacity];
+        values = new int[capacity];
+
+        JackLexer lexer = new JackLexer(sourceBuffer);
+        endIndex = -1;
+        int next = lexer.next();
+        while (next != JackLexer.END) {
+            if (next == JackLexer.BLOCK_COMMENT) {
+                addComment(lexer.tokenStart(), lexer.tokenLength());
+                lexer.skipWhiteSpace();
+            } else {
+                addToken(lexer);
+                lexer.skipWhiteSpace();
+                if (endIndex == -1 && lexer.atEnd()) {
+                    endIndex = size - 1;
+                }
+            }
+            next = lexer.next();
+        }
+        if (endIndex == -1) {
+            endIndex = size;
+        }
+    }
+
+    private void addToken(JackLexer lexer) {
+        if (size == types.length) {
+            int capacity = size * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        int type = lexer.type();
+        types[size] = type;
+        starts[size] = lexer.tokenStart();
+        lengths[size] = lexer.tokenLength();
+        lines[size] = lexer.getLineNumber();
+        if (type == JackLexer.KEYWORD) {
+            values[size] = lexer.keywordId();
+        } else if (type == JackLexer.INT_CONSTANT) {
+            values[size] = lexer.intValue();
+        } else if (type == JackLexer.IDENTIFIER) {
+            values[size] = intern(lexer.tokenStart(), lexer.tokenLength());
+        }
+        size++;
+    }
+
+    private void addComment(int start, int length) {
+        if (commentCount == commentStarts.length) {
+            int capacity = commentCount * 2;
+            commentStarts = Arrays.copyOf(commentStarts, capacity);
+            commentLengths = Arrays.copyOf(commentLengths, capacity);
+            commentTokens = Arrays.copyOf(commentTokens, capacity);
+        }
+        commentStarts[commentCount] = start;
+        commentLengths[commentCount] = length;
+        commentTokens[commentCount] = size;
+        commentCount++;
+    }
+
+    /**
+     * Finds or adds the identifier spanning source[start, start + length)
+     * @return the id of the identifier
+     */
+    private int intern(int start, int length) {
+        int hash = 0;
+        for (int i = start; i < start + length; i++) {
+            hash = 31 * hash + source[i];
+        }
+        int mask = identifierSlots.length - 1;
+        int slot = hash & mask;
+        while (identifierSlots[slot] != 0) {
+            int id = identifierSlots[slot] - 1;
+            if (spanEquals(identifiers[id], start, length)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (identifierCount == identifiers.length) {
+            identifiers = Arrays.copyOf(identifiers, identifierCount * 2);
+        }
+        int id = identifierCount++;
+        identifiers[id] = new String(source, start, length);
+        identifierSlots[slot] = id + 1;
+        if (identifierCount * 2 > identifierSlots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private boolean spanEquals(String s, int start, int length) {
+        if (s.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (s.charAt(i) != source[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash() {
+        identifierSlots = new int[identifierSlots.length * 2];
+        int mask = identifierSlots.length - 1;
+        for (int id = 0; id < identifierCount; id++) {
+            int slot = identifiers[id].hashCode() & mask;
+            while (identifierSlots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            identifierSlots[slot] = id + 1;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int type(int i) {
+        return types[i];
+    }
+
+    public int start(int i) {
+        return starts[i];
+    }
+
+    public int length(int i) {
+        return lengths[i];
+    }
+
+    public int line(int i) {
+        return lines[i];
+    }
+
+    /**
+     * @return the keyword index, integer value or identifier id of token i
+     */
+    public int value(int i) {
+        return values[i];
+    }
+
+    /**
+     * @return the index of the first token after which only whitespace and comments remain
+     */
+    public int endIndex() {
+        return endIndex;
+    }
+
+    public char[] array() {
+        return source;
+    }
+
+    public int identifierCount() {
+        return identifierCount;
+    }
+
+    public String identifier(int id) {
+        return identifiers[id];
+    }
+
+    /**
+     * @return the text of token i, shared Strings are returned for keywords and identifiers
+     */
+    public String tokenString(int i) {
+        if (types[i] == JackLexer.KEYWORD) {
+            return JackLexer.KEYWORDS[values[i]];
+        } else if (types[i] == JackLexer.IDENTIFIER) {
+            return identifiers[values[i]];
+        }
+        return new String(source, starts[i], lengths[i]);
+    }
+
+    public int commentCount() {
+        return commentCount;
+    }
+
+    /**
+     * @return the index of the token comment c comes before
+     */
+    public int commentToken(int c) {
+        return commentTokens[c];
+    }
+
+    public String comment(int c) {
+        return new String(source, commentStarts[c], commentLengths[c]);
+    }
+
+    /**
+     * Writes every token between the &lt;tokens&gt; tags of a T.xml file
+     * @param writer the token xml output
+     * @throws IOException if writer encounters an error
+     */
+    public void writeTokens(Writer writer) throws IOException {
+        for (int i = 0; i < size; i++) {
+            String tag = tagOf(types[i]);
+            int start = starts[i];
+            writer.write('<');
+            writer.write(tag);
+            writer.write("> ");
+            if (types[i] == JackLexer.STR_CONSTANT) {
+                writer.write(source, start + 1, lengths[i] - 2);
+            } else if (types[i] == JackLexer.SYMBOL && xmlSymbol(source[start]) != null) {
+                writer.write(xmlSymbol(source[start]));
+            } else {
+                writer.write(source, start, lengths[i]);
+            }
+            writer.write(" </");
+            writer.write(tag);
+            writer.write(">\n");
+        }
+    }
+
+    private static String tagOf(int type) {
+        if (type == JackLexer.KEYWORD) {
+            return "keyword";
+        } else if (type == JackLexer.IDENTIFIER) {
+            return "identifier";
+        } else if (type == JackLexer.STR_CONSTANT) {
+            return "stringConstant";
+        } else if (type == JackLexer.INT_CONSTANT) {
+            return "integerConstant";
+        }
+        return "symbol";
+    }
+
+    public static String xmlSymbol(char symbol) {
+        switch (symbol) {
+            case '<' -> {
+                return "&lt;";
+            }
+            case '>' -> {
+                return "&gt;";
+            }
+            case '&' -> {
+                return "&amp;";
+            }
+            default -> {
+                return null;
+            }
+        }
+    }
+}
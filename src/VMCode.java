@@ -0,0 +1,226 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Compact buffer of VM instructions. Each instruction is an opcode byte plus two ints: the first is a Segment or Ops
+ * ordinal or the id of an interned name, the second is an index, argument count or local count. Names (labels,
+ * functions, comments and raw text) are interned once and referred to by id.
+ */
+public class VMCode {
+
+    public static final byte PUSH = 0;
+    public static final byte POP = 1;
+    public static final byte ARITHMETIC = 2;
+    public static final byte LABEL = 3;
+    public static final byte GOTO = 4;
+    public static final byte IF_GOTO = 5;
+    public static final byte CALL = 6;
+    public static final byte FUNCTION = 7;
+    public static final byte RETURN = 8;
+    public static final byte COMMENT = 9;
+    public static final byte RAW = 10; // text written as is
+    public static final byte NOP = 11; // removed by an optimization, dropped by compact()
+
+    private static final String PADDING = "    ";
+    private static final String[] SEGMENT_NAMES = new String[Segment.values().length];
+    private static final String[] OPS_NAMES = new String[Ops.values().length];
+    private static final String[] SMALL_INTS = new String[1024]; // most indexes and counts are small
+
+    static {
+        for (Segment seg : Segment.values()) {
+            SEGMENT_NAMES[seg.ordinal()] = seg.toString().toLowerCase();
+        }
+        for (Ops op : Ops.values()) {
+            OPS_NAMES[op.ordinal()] = op.toString().toLowerCase();
+        }
+        for (int i = 0; i < SMALL_INTS.length; i++) {
+            SMALL_INTS[i] = Integer.toString(i);
+        }
+    }
+
+    private byte[] opcodes = new byte[64];
+    private int[] args = new int[64];
+    private int[] operands = new int[64];
+    private int size = 0;
+
+    private final ArrayList<String> names = new ArrayList<>();
+    private final HashMap<String, Integer> nameIds = new HashMap<>();
+
+    public void add(byte opcode, int arg, int operand) {
+        if (size == opcodes.length) {
+            opcodes = Arrays.copyOf(opcodes, size * 2);
+            args = Arrays.copyOf(args, size * 2);
+            operands = Arrays.copyOf(operands, size * 2);
+        }
+        opcodes[size] = opcode;
+        args[size] = arg;
+        operands[size] = operand;
+        size++;
+    }
+
+    /**
+     * @return the id of the name, adding it if it's new
+     */
+    public int intern(String name) {
+        Integer id = nameIds.get(name);
+        if (id == null) {
+            id = names.size();
+            names.add(name);
+            nameIds.put(name, id);
+        }
+        return id;
+    }
+
+    public String name(int id) {
+        return names.get(id);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public byte opcode(int i) {
+        return opcodes[i];
+    }
+
+    public int arg(int i) {
+        return args[i];
+    }
+
+    public int operand(int i) {
+        return operands[i];
+    }
+
+    public void set(int i, byte opcode, int arg, int operand) {
+        opcodes[i] = opcode;
+        args[i] = arg;
+        operands[i] = operand;
+    }
+
+    /**
+     * @return true for instructions that run, as opposed to comments, raw text and removed instructions
+     */
+    public boolean isInstruction(int i) {
+        return opcodes[i] != COMMENT && opcodes[i] != RAW && opcodes[i] != NOP;
+    }
+
+    /**
+     * @return the number of instructions that run
+     */
+    public int instructionCount() {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (isInstruction(i)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Removes every NOP, keeping the order of everything else
+     */
+    public void compact() {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (opcodes[i] != NOP) {
+                opcodes[kept] = opcodes[i];
+                args[kept] = args[i];
+                operands[kept] = operands[i];
+                kept++;
+            }
+        }
+        size = kept;
+    }
+
+    /**
+     * Removes the instructions from start up to but not including end, shifting the rest down
+     */
+    public void remove(int start, int end) {
+        System.arraycopy(opcodes, end, opcodes, start, size - end);
+        System.arraycopy(args, end, args, start, size - end);
+        System.arraycopy(operands, end, operands, start, size - end);
+        size -= end - start;
+    }
+
+    /**
+     * Drops every instruction but keeps the interned names
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Serializes every instruction as VM text in one pass
+     * @param writer the .vm output
+     * @throws IOException if writer encounters an error
+     */
+    public void writeTo(Writer writer) throws IOException {
+        for (int i = 0; i < size; i++) {
+            int arg = args[i];
+            switch (opcodes[i]) {
+                case PUSH -> writeMemoryAccess(writer, "push ", arg, operands[i]);
+                case POP -> writeMemoryAccess(writer, "pop ", arg, operands[i]);
+                case ARITHMETIC -> {
+                    writer.write(PADDING);
+                    writer.write(OPS_NAMES[arg]);
+                    writer.write('\n');
+                }
+                case LABEL -> {
+                    writer.write("label ");
+                    writer.write(names.get(arg));
+                    writer.write('\n');
+                }
+                case GOTO -> {
+                    writer.write(PADDING + "goto ");
+                    writer.write(names.get(arg));
+                    writer.write('\n');
+                }
+                case IF_GOTO -> {
+                    writer.write(PADDING + "if-goto ");
+                    writer.write(names.get(arg));
+                    writer.write('\n');
+                }
+                case CALL -> {
+                    writer.write(PADDING + "call ");
+                    writer.write(names.get(arg));
+                    writer.write(' ');
+                    writer.write(intString(operands[i]));
+                    writer.write('\n');
+                }
+                case FUNCTION -> {
+                    writer.write(PADDING + "\nfunction ");
+                    writer.write(names.get(arg));
+                    writer.write(' ');
+                    writer.write(intString(operands[i]));
+                    writer.write('\n');
+                }
+                case RETURN -> writer.write(PADDING + "return\n");
+                case COMMENT -> {
+                    writer.write("//");
+                    writer.write(names.get(arg));
+                    writer.write('\n');
+                }
+                case RAW -> writer.write(names.get(arg));
+                case NOP -> {
+                }
+            }
+        }
+    }
+
+    private void writeMemoryAccess(Writer writer, String command, int segment, int index) throws IOException {
+        writer.write(PADDING);
+        writer.write(command);
+        writer.write(SEGMENT_NAMES[segment]);
+        writer.write(' ');
+        writer.write(intString(index));
+        writer.write('\n');
+    }
+
+    private static String intString(int i) {
+        return i >= 0 && i < SMALL_INTS.length ? SMALL_INTS[i] : Integer.toString(i);
+    }
+}
@@ -0,0 +1,722 @@
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the VM code of a class from its syntax tree. Block comments of the source are copied in as they are passed,
+ * using the token positions the parser recorded in the nodes.
+ */
+public class VMGenerator implements AstVisitor {
+
+    private enum subroutineType{
+        CONSTRUCTOR,
+        FUNCTION,
+        METHOD
+    }
+
+    private enum varOp{
+        PUSH,
+        POP
+    }
+
+    private VMWriter vmWriter;
+    private TokenStream tokens;
+    private int nextComment;
+
+    private subroutineType currentSubroutineType = null;
+    private String currentClass = null;
+    private String currentFunction = null; // Class.subroutine, every label of the subroutine starts with it
+    private String[] methodNames; // Class.subroutine by identifier id, for calls to methods of this class
+
+    private boolean writeSymbolTables = true;
+    private boolean foldConstants = false;
+    private int foldedExpressions = 0;
+    private int simplifiedExpressions = 0;
+    private boolean strengthReduction = false;
+    private int multiplyBudget = 24; // instructions an inlined multiplication may take
+    private int reducedCalls = 0;
+    private boolean poolStrings = false;
+    private final LinkedHashMap<String, Integer> stringPool = new LinkedHashMap<>(); // literal -> static slot
+    private int pooledStringUses = 0;
+
+    private final SymbolTable classLevelSymbols = new SymbolTable();
+    private final SymbolTable subroutineLevelSymbols = new SymbolTable();
+
+    private static final HashMap<Character, Ops> opsTable = new HashMap<>();
+    private static final HashMap<Character, Ops> unaryOpsTable = new HashMap<>();
+
+    static {
+        opsTable.put('+', Ops.ADD);
+        opsTable.put('-', Ops.SUB);
+        opsTable.put('&', Ops.AND);
+        opsTable.put('|', Ops.OR);
+        opsTable.put('<', Ops.LT);
+        opsTable.put('>', Ops.GT);
+        opsTable.put('=', Ops.EQ);
+
+        unaryOpsTable.put('-', Ops.NEG);
+        unaryOpsTable.put('~', Ops.NOT);
+    }
+
+    /**
+     * Starts on a new class, the counts of the previous one are reset
+     * @param vmWriter receives the VM code
+     * @param tokens the tokens the tree was parsed from, for their comments
+     */
+    public void init(VMWriter vmWriter, TokenStream tokens) {
+        this.vmWriter = vmWriter;
+        this.tokens = tokens;
+        nextComment = 0;
+        methodNames = new String[tokens.identifierCount()];
+        foldedExpressions = 0;
+        simplifiedExpressions = 0;
+        reducedCalls = 0;
+        stringPool.clear();
+        pooledStringUses = 0;
+    }
+
+    /**
+     * @see CompilationEngine#setWriteSymbolTables(boolean)
+     */
+    public void setWriteSymbolTables(boolean writeSymbolTables){
+        this.writeSymbolTables = writeSymbolTables;
+    }
+
+    /**
+     * @see CompilationEngine#setFoldConstants(boolean)
+     */
+    public void setFoldConstants(boolean foldConstants){
+        this.foldConstants = foldConstants;
+    }
+
+    public int getFoldedExpressions(){
+        return foldedExpressions;
+    }
+
+    public int getSimplifiedExpressions(){
+        return simplifiedExpressions;
+    }
+
+    /**
+     * @see CompilationEngine#setStrengthReduction(boolean)
+     */
+    public void setStrengthReduction(boolean strengthReduction){
+        this.strengthReduction = strengthReduction;
+    }
+
+    public void setMultiplyBudget(int multiplyBudget){
+        this.multiplyBudget = multiplyBudget;
+    }
+
+    public int getReducedCalls(){
+        return reducedCalls;
+    }
+
+    /**
+     * @see CompilationEngine#setPoolStrings(boolean)
+     */
+    public void setPoolStrings(boolean poolStrings){
+        this.poolStrings = poolStrings;
+    }
+
+    public int getPooledStrings(){
+        return stringPool.size();
+    }
+
+    public int getPooledStringUses(){
+        return pooledStringUses;
+    }
+
+    /**
+     * Writes the comments that come before a token, the single pass compiler wrote them when it advanced to it
+     * @param position the token the parser was at
+     */
+    private void sync(int position){
+        while (nextComment < tokens.commentCount() && tokens.commentToken(nextComment) <= position){
+            vmWriter.write(tokens.comment(nextComment));
+            nextComment++;
+        }
+    }
+
+    @Override
+    public void visitClass(Ast.Class node) throws IOException {
+        classLevelSymbols.reset();
+        currentClass = node.name();
+        for (Ast.ClassVarDec varDec : node.varDecs()){
+            SymbolTable.kind kind = SymbolTable.kind.valueOf(varDec.kind().toUpperCase());
+            for (Ast.Name name : varDec.names()){
+                classLevelSymbols.define(name.id(), name.text(), varDec.type().name(), kind);
+            }
+        }
+        sync(node.tablePosition());
+        if (writeSymbolTables){
+            vmWriter.write(classLevelSymbols.getFormattedTable());
+        }
+
+        for (Ast.Subroutine subroutine : node.subroutines()){
+            compileSubroutine(subroutine);
+        }
+        sync(node.closePosition());
+        writeStringBuilders();
+        sync(node.endPosition());
+    }
+
+    private void compileSubroutine(Ast.Subroutine node) throws IOException {
+        subroutineLevelSymbols.reset();
+        switch (node.kind()){
+            case "function" -> currentSubroutineType = subroutineType.FUNCTION;
+            case "method" -> {
+                currentSubroutineType = subroutineType.METHOD;
+                subroutineLevelSymbols.define(-1, "this", currentClass, SymbolTable.kind.ARG);
+            }
+            case "constructor" -> currentSubroutineType = subroutineType.CONSTRUCTOR;
+        }
+        subroutineLevelSymbols.setName(node.name());
+        currentFunction = currentClass + "." + node.name();
+        for (Ast.Parameter parameter : node.parameters()){
+            subroutineLevelSymbols.define(parameter.name().id(), parameter.name().text(), parameter.type().name(),
+                    SymbolTable.kind.ARG);
+        }
+        for (Ast.VarDec varDec : node.varDecs()){
+            for (Ast.Name name : varDec.names()){
+                subroutineLevelSymbols.define(name.id(), name.text(), varDec.type().name(), SymbolTable.kind.VAR);
+            }
+        }
+
+        sync(node.functionPosition());
+        // Use class name and subroutine name for function calls
+        vmWriter.writeFunction(currentFunction, subroutineLevelSymbols.varCount(SymbolTable.kind.VAR));
+
+        if (writeSymbolTables){
+            vmWriter.write(subroutineLevelSymbols.getFormattedTable());
+        }
+
+        if (currentSubroutineType == subroutineType.CONSTRUCTOR){ // if the subroutine is a constructor
+            // make room in memory for every field variable
+            vmWriter.writePush(Segment.CONSTANT, classLevelSymbols.varCount(SymbolTable.kind.FIELD));
+            vmWriter.writeCall("Memory.alloc", 1);
+            // set THIS to the address in memory returned by alloc
+            vmWriter.writePop(Segment.POINTER, 0);
+        } else if (currentSubroutineType == subroutineType.METHOD){
+            vmWriter.writePush(Segment.ARGUMENT, 0);
+            vmWriter.writePop(Segment.POINTER, 0);
+        }
+        if (node.statements() != null){
+            compileStatements(node.statements());
+        }
+    }
+
+    private void compileStatements(Ast.Statements node) throws IOException {
+        for (Ast.Statement statement : node.statements()){
+            statement.accept(this);
+        }
+    }
+
+    @Override
+    public void visitLet(Ast.Let node) throws IOException {
+        if (node.index() != null){ // Handle Arrays
+            sync(node.namePosition());
+            handleVariableInTables(node.name(), varOp.PUSH); // push array
+            node.index().accept(this);                       // push [expression]
+            sync(node.indexEndPosition());
+            vmWriter.writeArithmetic(Ops.ADD);               // add
+        }
+        node.value().accept(this);                           // expression is now at top of stack
+
+        sync(node.endPosition());
+        if (node.index() != null){
+            vmWriter.writePop(Segment.TEMP, 0);    // store expression 2 in temp
+            vmWriter.writePop(Segment.POINTER, 1); // set THAT to array[expression]
+            vmWriter.writePush(Segment.TEMP, 0);   // retrieve expression 2
+            vmWriter.writePop(Segment.THAT, 0);    // THAT 0 (array[expression]) is now expression 2
+        } else {
+            handleVariableInTables(node.name(), varOp.POP);  // pop to desired address
+        }
+    }
+
+    @Override
+    public void visitIf(Ast.If node) throws IOException {
+        node.condition().accept(this); // Expression is pushed to stack
+
+        int ifElseCount = subroutineLevelSymbols.getIfElseCount(); // get if/else count for this scope
+        subroutineLevelSymbols.incrementIfElseCount(); // increment for the next scope
+
+        String falseLabel = currentFunction + "_FALSE_" + ifElseCount;
+        String trueLabel = currentFunction + "_TRUE_" + ifElseCount;
+
+        sync(node.conditionEndPosition());
+        vmWriter.writeArithmetic(Ops.NOT); // negate
+        // goto label if statement is false (true after negation)
+        vmWriter.writeIf(falseLabel);
+
+        compileStatements(node.then());
+
+        sync(node.thenEndPosition());
+        vmWriter.writeGoTo(trueLabel);
+        vmWriter.writeLabel(falseLabel);
+
+        if (node.otherwise() != null){
+            compileStatements(node.otherwise());
+        }
+        sync(node.endPosition());
+        vmWriter.writeLabel(trueLabel);
+    }
+
+    @Override
+    public void visitWhile(Ast.While node) throws IOException {
+        int loopCount = subroutineLevelSymbols.getLoopCount();
+        subroutineLevelSymbols.incrementLoopCount();
+
+        String startLabel = currentFunction + "_LOOP_START_" + loopCount;
+        String endLabel = currentFunction + "_LOOP_END_" + loopCount;
+
+        sync(node.startPosition());
+        vmWriter.writeLabel(startLabel);
+
+        node.condition().accept(this); // Expression pushed to stack
+
+        sync(node.conditionEndPosition());
+        vmWriter.writeArithmetic(Ops.NOT);
+        vmWriter.writeIf(endLabel);
+
+        compileStatements(node.body());
+
+        sync(node.bodyEndPosition());
+        vmWriter.writeGoTo(startLabel);
+
+        sync(node.endPosition());
+        vmWriter.writeLabel(endLabel);
+
+        subroutineLevelSymbols.incrementLoopCount();
+    }
+
+    @Override
+    public void visitDo(Ast.Do node) throws IOException {
+        node.call().accept(this);
+        vmWriter.writePop(Segment.TEMP, 0); // do subroutines are void
+    }
+
+    @Override
+    public void visitReturn(Ast.Return node) throws IOException {
+        if (node.value() == null){
+            sync(node.startPosition());
+            vmWriter.writePush(Segment.CONSTANT, 0); // push garbage value if void
+        } else {
+            node.value().accept(this);
+        }
+        sync(node.endPosition());
+        vmWriter.writeReturn();
+    }
+
+    @Override
+    public void visitExpression(Ast.Expression node) throws IOException {
+        List<Ast.Term> terms = node.terms();
+        int[] termStarts = new int[terms.size()]; // where the code of each term begins
+        for (int i = 0; i < terms.size(); i++){
+            sync(node.termPositions()[i]);
+            termStarts[i] = vmWriter.position();
+            terms.get(i).accept(this);
+        }
+        sync(node.endPosition());
+
+        // push ops in reverse order
+        for (int i = node.ops().size() - 1; i >= 0; i--){
+            char op = node.ops().get(i);
+            // the code of term i is followed by the code of everything to its right, which ends at the last op
+            if (foldConstants && foldBinary(op, termStarts[i], termStarts[i + 1])){
+                continue;
+            }
+            if (strengthReduction && (op == '*' || op == '/') && reduce(op, termStarts[i], termStarts[i + 1])){
+                continue;
+            }
+            switch (op){
+                case '*' -> vmWriter.writeCall("Math.multiply", 2);
+                case '/' -> vmWriter.writeCall("Math.divide", 2);
+                default -> vmWriter.writeArithmetic(opsTable.get(op));
+            }
+        }
+    }
+
+    @Override
+    public void visitIntegerConstant(Ast.IntegerConstant node) {
+        sync(node.position());
+        vmWriter.writePush(Segment.CONSTANT, node.value());
+    }
+
+    @Override
+    public void visitStringConstant(Ast.StringConstant node) {
+        sync(node.position());
+        if (poolStrings){
+            handlePooledString(node.value());
+        } else {
+            writeString(node.value());
+        }
+    }
+
+    @Override
+    public void visitKeywordConstant(Ast.KeywordConstant node) {
+        sync(node.position());
+        switch (node.keyword()){
+            case "true" ->{
+                vmWriter.writePush(Segment.CONSTANT, 1);
+                vmWriter.writeArithmetic(Ops.NEG);                    // True is -1
+            }
+            case "this" -> vmWriter.writePush(Segment.POINTER, 0);
+            default -> vmWriter.writePush(Segment.CONSTANT, 0); // False and null are 0
+        }
+    }
+
+    @Override
+    public void visitEmptyTerm(Ast.EmptyTerm node) {
+    }
+
+    @Override
+    public void visitUnary(Ast.Unary node) throws IOException {
+        sync(node.position());
+        int start = vmWriter.position();
+        node.operand().accept(this);
+
+        sync(node.endPosition());
+        Ops unaryOp = unaryOpsTable.get(node.op());
+        if (!foldConstants || !foldUnary(unaryOp, start)){
+            vmWriter.writeArithmetic(unaryOp); // write unaryOp after term
+        }
+    }
+
+    @Override
+    public void visitParenthesized(Ast.Parenthesized node) throws IOException {
+        node.expression().accept(this);
+    }
+
+    @Override
+    public void visitVariable(Ast.Variable node) {
+        sync(node.position());
+        handleVariableInTables(node.name(), varOp.PUSH);
+    }
+
+    @Override
+    public void visitArrayElement(Ast.ArrayElement node) throws IOException {
+        sync(node.position());
+        handleVariableInTables(node.name(), varOp.PUSH); // push array address
+        node.index().accept(this);                        // push value of expression
+        sync(node.endPosition());
+        vmWriter.writeArithmetic(Ops.ADD);                // get array segment address
+        vmWriter.writePop(Segment.POINTER, 1);      // set THAT
+        vmWriter.writePush(Segment.THAT, 0 );       // get value of segment
+    }
+
+    /*  A call can be any of the following:
+        methodName(parameterList)                -> independent method call (push THIS as ARG 0) same as
+                                                    this.methodName(parameterList)
+        varName.methodName(parameterList)        -> method call (push varName as ARG 0)
+        className.functionName                   -> static function
+        className.constructorName(parameterList) -> constructor
+
+        names not found in symbolTable are assumed to be class names.
+     */
+    @Override
+    public void visitCall(Ast.Call node) throws IOException {
+        sync(node.position());
+        String subroutineName;
+        int nArgs;
+        if (node.target() == null){
+            vmWriter.writePush(Segment.POINTER, 0);
+            nArgs = 1;                                // THIS has been pushed as ARG 0
+            subroutineName = methodNames[node.name().id()];
+            if (subroutineName == null){
+                subroutineName = currentClass + "." + node.name().text();
+                methodNames[node.name().id()] = subroutineName;
+            }
+        } else {
+            String identifier = node.target().text();
+            nArgs = 0;
+            // if it's in the symbol table it's an instantiated object calling a method
+            SymbolProperty object = classLevelSymbols.lookup(node.target().id());
+            if (object == null){
+                object = subroutineLevelSymbols.lookup(node.target().id());
+            }
+            if (object != null){
+                nArgs = 1;
+                vmWriter.writePush(object.getSegment(), object.getIndex());
+                identifier = object.getType(); // the type of the object
+            }
+            subroutineName = identifier + "." + node.name().text();
+        }
+        for (Ast.Expression argument : node.arguments()){
+            argument.accept(this);
+            nArgs++;
+        }
+        sync(node.endPosition());
+        vmWriter.writeCall(subroutineName, nArgs);
+    }
+
+    /**
+     * Applies a unary op at compile time if its operand is constant, or cancels it against the same op
+     * @param start where the operand's code begins
+     * @return true if no instruction needs to be written for the op
+     */
+    private boolean foldUnary(Ops unaryOp, int start){
+        Integer value = vmWriter.constantValue(start, vmWriter.position());
+        if (value != null){
+            int size = vmWriter.position() - start;
+            vmWriter.truncate(start);
+            writeConstant(unaryOp == Ops.NEG ? -value : ~value);
+            if (vmWriter.position() - start < size + 1){
+                foldedExpressions++; // -5 is still push 5, neg so it doesn't count
+            }
+            return true;
+        }
+        // the last instruction of a term is the outermost thing it does, so this is -(-x) or ~~x
+        if (vmWriter.position() - start > 1 && vmWriter.endsWith(unaryOp)){
+            vmWriter.truncate(vmWriter.position() - 1);
+            simplifiedExpressions++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Applies a binary op at compile time if both operands are constant, or drops it if one side is an identity
+     * @param left where the code of the left operand begins
+     * @param right where the code of the right operand begins, it runs to the end of the written code
+     * @return true if no instruction needs to be written for the op
+     */
+    private boolean foldBinary(char op, int left, int right){
+        int end = vmWriter.position();
+        Integer a = vmWriter.constantValue(left, right);
+        Integer b = vmWriter.constantValue(right, end);
+        if (a != null && b != null){
+            Integer value = evaluate(op, a, b);
+            if (value == null){
+                return false;
+            }
+            vmWriter.truncate(left);
+            writeConstant(value);
+            foldedExpressions++;
+            return true;
+        }
+        if (b != null){
+            if (b == 0 && (op == '+' || op == '-' || op == '|') || b == 1 && (op == '*' || op == '/')){
+                vmWriter.truncate(right); // x + 0, x - 0, x | 0, x * 1, x / 1
+                simplifiedExpressions++;
+                return true;
+            }
+            if (b == 0 && (op == '*' || op == '&') && vmWriter.isPure(left, right)){
+                vmWriter.truncate(left); // x * 0, x & 0
+                writeConstant(0);
+                simplifiedExpressions++;
+                return true;
+            }
+        } else if (a != null){
+            if (a == 0 && (op == '+' || op == '|') || a == 1 && op == '*'){
+                vmWriter.remove(left, right); // 0 + x, 0 | x, 1 * x
+                simplifiedExpressions++;
+                return true;
+            }
+            if (a == 0 && (op == '*' || op == '&') && vmWriter.isPure(right, end)){
+                vmWriter.truncate(left); // 0 * x, 0 & x
+                writeConstant(0);
+                simplifiedExpressions++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replaces a multiplication or division with a constant operand by inline code
+     * @param left where the code of the left operand begins
+     * @param right where the code of the right operand begins, it runs to the end of the written code
+     * @return true if no call needs to be written for the op
+     */
+    private boolean reduce(char op, int left, int right){
+        int end = vmWriter.position();
+        Integer b = vmWriter.constantValue(right, end);
+        Integer a = op == '*' ? vmWriter.constantValue(left, right) : null; // only multiplication commutes
+        if (b == null && a == null){
+            return false;
+        }
+        // the other operand is left on top of the stack and the new code is written after it
+        int factor = b != null ? b : a;
+        int operandStart = b != null ? left : right;
+        int operandEnd = b != null ? right : end;
+        if (op == '/' && factor != 1 && factor != -1){
+            return false; // without a shift right there's nothing cheaper than the call
+        }
+        if (op == '*' && factor == 0){
+            return false; // dropping the other operand is only safe without calls, see foldBinary
+        }
+
+        writeMultiply(factor, operandStart, operandEnd);
+        if (vmWriter.position() - end > multiplyBudget){
+            vmWriter.truncate(end);
+            return false;
+        }
+        if (b != null){
+            vmWriter.remove(right, end);
+        } else {
+            vmWriter.remove(left, right);
+        }
+        reducedCalls++;
+        return true;
+    }
+
+    /**
+     * Multiplies the value on top of the stack by a constant with adds, doubling once per bit of the constant.
+     * temp 1 holds the operand and temp 2 the running product when they can't simply be pushed again.
+     * @param factor the constant, not 0
+     * @param start where the operand's code begins
+     * @param end where the operand's code ends, the top of the written code
+     */
+    private void writeMultiply(int factor, int start, int end){
+        int magnitude = Math.abs(factor); // 32768 for -32768 works too, the doubling wraps around
+        if (magnitude > 1){
+            boolean variable = vmWriter.isVariablePush(start, end);
+            if (!variable){
+                vmWriter.writePop(Segment.TEMP, 1);
+                vmWriter.writePush(Segment.TEMP, 1);
+            }
+            boolean productIsOperand = true;
+            for (int bit = 30 - Integer.numberOfLeadingZeros(magnitude); bit >= 0; bit--){
+                if (productIsOperand){
+                    writeOperand(variable, start); // x + x
+                    productIsOperand = false;
+                } else {
+                    vmWriter.writePop(Segment.TEMP, 2);
+                    vmWriter.writePush(Segment.TEMP, 2);
+                    vmWriter.writePush(Segment.TEMP, 2);
+                }
+                vmWriter.writeArithmetic(Ops.ADD);
+                if ((magnitude >> bit & 1) == 1){
+                    writeOperand(variable, start);
+                    vmWriter.writeArithmetic(Ops.ADD);
+                }
+            }
+        }
+        if (factor < 0){
+            vmWriter.writeArithmetic(Ops.NEG);
+        }
+    }
+
+    private void writeOperand(boolean variable, int start){
+        if (variable){
+            vmWriter.writeCopy(start);
+        } else {
+            vmWriter.writePush(Segment.TEMP, 1);
+        }
+    }
+
+    /**
+     * Computes a binary op the way the Hack platform does, with 16 bit wraparound
+     * @return the result, or null for a division by zero which is left for Math.divide to report
+     */
+    private static Integer evaluate(char op, int a, int b){
+        int result;
+        switch (op){
+            case '+' -> result = a + b;
+            case '-' -> result = a - b;
+            case '*' -> result = a * b;
+            case '/' -> {
+                if (b == 0){
+                    return null;
+                }
+                result = a / b; // Math.divide truncates towards zero like Java
+            }
+            case '&' -> result = a & b;
+            case '|' -> result = a | b;
+            case '<' -> result = a < b ? -1 : 0;
+            case '>' -> result = a > b ? -1 : 0;
+            case '=' -> result = a == b ? -1 : 0;
+            default -> {
+                return null;
+            }
+        }
+        return (int) (short) result;
+    }
+
+    /**
+     * Pushes a 16 bit value, VM constants only go up to 32767 so negative values are built with neg or not
+     */
+    private void writeConstant(int value){
+        value = (short) value;
+        if (value >= 0){
+            vmWriter.writePush(Segment.CONSTANT, value);
+        } else if (value != Short.MIN_VALUE){
+            vmWriter.writePush(Segment.CONSTANT, -value);
+            vmWriter.writeArithmetic(Ops.NEG); // -1 comes out the same as true
+        } else {
+            vmWriter.writePush(Segment.CONSTANT, Short.MAX_VALUE);
+            vmWriter.writeArithmetic(Ops.NOT);
+        }
+    }
+
+    private void handleVariableInTables(Ast.Name varName, varOp op){
+        SymbolProperty symbol = subroutineLevelSymbols.lookup(varName.id());
+        if (symbol == null){
+            symbol = classLevelSymbols.lookup(varName.id());
+            if (symbol == null){
+                throw new IllegalArgumentException(varName.text() + " not found in table");
+            }
+        }
+        switch(op) {
+            case PUSH -> vmWriter.writePush(symbol.getSegment(), symbol.getIndex());
+            case POP -> vmWriter.writePop(symbol.getSegment(), symbol.getIndex()); // write pop to requisite address
+        }
+    }
+
+    /**
+     * Pushes a literal from its static, calling its builder the first time. Statics start out as 0 and a built
+     * String never is, so 0 means not built yet:
+     *     push static s, push static s, if-goto built, pop temp 0, call Class.$string_n 0, label built
+     */
+    private void handlePooledString(String string){
+        Integer slot = stringPool.get(string);
+        if (slot == null){
+            // pooled literals go after the statics the class declares
+            slot = classLevelSymbols.varCount(SymbolTable.kind.STATIC) + stringPool.size();
+            stringPool.put(string, slot);
+        }
+        String built = currentFunction + "_STRING_" + pooledStringUses;
+        pooledStringUses++;
+        vmWriter.writePush(Segment.STATIC, slot);
+        vmWriter.writePush(Segment.STATIC, slot);
+        vmWriter.writeIf(built);
+        vmWriter.writePop(Segment.TEMP, 0);
+        vmWriter.writeCall(stringBuilderName(slot), 0);
+        vmWriter.writeLabel(built);
+    }
+
+    /**
+     * Writes one function per pooled literal that builds it, stores it in its static and returns it
+     */
+    private void writeStringBuilders() throws IOException {
+        for (Map.Entry<String, Integer> entry : stringPool.entrySet()){
+            vmWriter.writeFunction(stringBuilderName(entry.getValue()), 0);
+            writeString(entry.getKey());
+            vmWriter.writePop(Segment.STATIC, entry.getValue());
+            vmWriter.writePush(Segment.STATIC, entry.getValue());
+            vmWriter.writeReturn();
+        }
+    }
+
+    // $ can't appear in a Jack identifier, so this never clashes with a subroutine of the class
+    private String stringBuilderName(int slot){
+        return currentClass + ".$string_" + slot;
+    }
+
+    private void writeString(String string){
+        int stringLength = string.length();
+
+        // allocate space for String
+        vmWriter.writePush(Segment.CONSTANT, stringLength);  // get length of string
+        vmWriter.writeCall("String.new", 1);      // make string of that length, push to stack
+        // populate String
+        for (int i = 0; i < stringLength; i++){
+            char currentChar = string.charAt(i);
+            vmWriter.writePush(Segment.CONSTANT, currentChar);      // push character (as an integer)
+            vmWriter.writeCall("String.appendChar", 2);  // append to String, returning to stack
+        }                                                           // String is now on top of stack
+    }
+}
@@ -0,0 +1,483 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Runs the .vm files of a compiled program and counts what it executes: VM instructions per function and in total,
+ * and calls to the OS. The OS is JackOS, unless the program defines a function of its own by the same name. RAM
+ * follows the Hack platform: SP, LCL, ARG, THIS and THAT at 0 to 4, temp at 5, statics from 16, the stack from 256
+ * and the heap from 2048.
+ */
+public class VMInterpreter {
+
+    private static final int SP = 0;
+    private static final int LCL = 1;
+    private static final int ARG = 2;
+    private static final int THIS = 3;
+    private static final int THAT = 4;
+    private static final int TEMP = 5;
+    private static final int STATIC = 16;
+    private static final int STACK = 256;
+    private static final int RETURN_TO_HOST = -1; // return address of the first call, returning to it ends the run
+
+    // decoded opcodes, each push and pop segment has its own
+    private static final int PUSH_CONSTANT = 0;
+    private static final int PUSH_LOCAL = 1;
+    private static final int PUSH_ARGUMENT = 2;
+    private static final int PUSH_THIS = 3;
+    private static final int PUSH_THAT = 4;
+    private static final int PUSH_ADDRESS = 5; // static, temp and pointer
+    private static final int POP_LOCAL = 6;
+    private static final int POP_ARGUMENT = 7;
+    private static final int POP_THIS = 8;
+    private static final int POP_THAT = 9;
+    private static final int POP_ADDRESS = 10;
+    private static final int ADD = 11;
+    private static final int SUB = 12;
+    private static final int NEG = 13;
+    private static final int EQ = 14;
+    private static final int GT = 15;
+    private static final int LT = 16;
+    private static final int AND = 17;
+    private static final int OR = 18;
+    private static final int NOT = 19;
+    private static final int GOTO = 20;
+    private static final int IF_GOTO = 21;
+    private static final int CALL = 22;
+    private static final int CALL_OS = 23; // a JackOS function
+    private static final int FUNCTION = 24;
+    private static final int RETURN = 25;
+
+    /**
+     * One line of a .vm file. Labels aren't instructions, they're resolved to the index of the instruction after them.
+     */
+    private record Instruction(String command, String arg1, int arg2, int function, int staticBase) {}
+
+    private final ArrayList<Instruction> instructions = new ArrayList<>();
+    private final HashMap<String, Integer> labels = new HashMap<>(); // function$label -> instruction index
+    private final HashMap<String, Integer> functions = new HashMap<>(); // name -> instruction index
+    private final ArrayList<String> functionNames = new ArrayList<>();
+    private int staticCount = 0;
+
+    private final int[] ram = new int[32768];
+    private final JackOS os = new JackOS(ram);
+    private long maxInstructions = Long.MAX_VALUE;
+
+    private int[] opcodes;
+    private int[] operands; // constant, address, jump target, function entry or JackOS id
+    private int[] counts; // argument count of a call, local count of a function
+    private long[] hits; // times each instruction ran
+    private final long[] osCalls = new long[JackOS.functionCount()];
+    private long instructionCount = 0;
+
+    /**
+     * Loads a .vm file, or every .vm file of a directory
+     * @throws IOException if a file can't be read
+     */
+    public void load(File file) throws IOException {
+        if (file.isDirectory()) {
+            File[] files = file.listFiles((dir, name) -> name.endsWith(".vm"));
+            if (files == null) {
+                throw new IOException("Can't list " + file);
+            }
+            Arrays.sort(files);
+            for (File vmFile : files) {
+                loadFile(vmFile);
+            }
+        } else {
+            loadFile(file);
+        }
+    }
+
+    private void loadFile(File file) throws IOException {
+        String text = stripComments(Files.readString(file.toPath()));
+        int staticBase = staticCount;
+        int function = -1;
+        String functionName = file.getName();
+        for (String line : text.split("\n")) {
+            String[] words = line.trim().split("\\s+");
+            if (words[0].isEmpty()) {
+                continue;
+            }
+            String arg1 = words.length > 1 ? words[1] : null;
+            int arg2 = words.length > 2 ? Integer.parseInt(words[2]) : 0;
+            switch (words[0]) {
+                case "label" -> {
+                    labels.put(functionName + "$" + arg1, instructions.size());
+                    continue;
+                }
+                case "function" -> {
+                    if (functions.containsKey(arg1)) {
+                        throw new IllegalArgumentException("Function " + arg1 + " defined twice");
+                    }
+                    functionName = arg1;
+                    function = functionNames.size();
+                    functionNames.add(arg1);
+                    functions.put(arg1, instructions.size());
+                }
+                case "push", "pop" -> {
+                    if (arg1.equals("static")) {
+                        staticCount = Math.max(staticCount, staticBase + arg2 + 1);
+                    }
+                }
+                case "add", "sub", "neg", "eq", "gt", "lt", "and", "or", "not", "goto", "if-goto", "call",
+                     "return" -> {
+                }
+                default -> throw new IllegalArgumentException("Unknown VM command in " + file + ": " + line.trim());
+            }
+            if (function < 0) {
+                throw new IllegalArgumentException("Instruction outside of a function in " + file + ": " + line.trim());
+            }
+            instructions.add(new Instruction(words[0], arg1, arg2, function, staticBase));
+        }
+        if (STATIC + staticCount > STACK) {
+            throw new IllegalArgumentException("Too many static variables: " + staticCount);
+        }
+    }
+
+    /**
+     * Removes block and line comments, keeping the line breaks so instructions stay on their lines. The compiler
+     * writes block comments right before instructions on the same line.
+     */
+    private static String stripComments(String text) {
+        StringBuilder code = new StringBuilder(text.length());
+        int i = 0;
+        while (i < text.length()) {
+            if (text.startsWith("/*", i)) {
+                int end = text.indexOf("*/", i + 2);
+                end = end < 0 ? text.length() : end + 2;
+                for (int j = i; j < end; j++) {
+                    if (text.charAt(j) == '\n') {
+                        code.append('\n');
+                    }
+                }
+                i = end;
+            } else if (text.startsWith("//", i)) {
+                int end = text.indexOf('\n', i);
+                i = end < 0 ? text.length() : end;
+            } else {
+                code.append(text.charAt(i++));
+            }
+        }
+        return code.toString();
+    }
+
+    /**
+     * @param input what the program reads from the keyboard
+     */
+    public void setInput(CharSequence input) {
+        os.setInput(input);
+    }
+
+    /**
+     * @param maxInstructions instructions to run before giving up, for programs that never return
+     */
+    public void setMaxInstructions(long maxInstructions) {
+        this.maxInstructions = maxInstructions;
+    }
+
+    public int peek(int address) {
+        return ram[address];
+    }
+
+    public void poke(int address, int value) {
+        ram[address] = (short) value;
+    }
+
+    /**
+     * Calls Sys.init if the program has one, otherwise initializes the OS and calls Main.main. Runs until the first
+     * call returns, the program halts or maxInstructions have run.
+     * @return false if the run was cut off by maxInstructions
+     */
+    public boolean run() {
+        decode();
+        String entry = functions.containsKey("Sys.init") ? "Sys.init" : "Main.main";
+        if (!functions.containsKey(entry)) {
+            throw new IllegalArgumentException("No " + entry + " to run");
+        }
+        // the entry function is called by the host: a frame returning to RETURN_TO_HOST
+        int sp = STACK;
+        ram[sp++] = RETURN_TO_HOST;
+        ram[sp++] = STACK;
+        ram[sp++] = STACK;
+        ram[sp++] = 0;
+        ram[sp++] = 0;
+        ram[SP] = sp;
+        ram[LCL] = sp;
+        ram[ARG] = STACK;
+        return execute(functions.get(entry));
+    }
+
+    /**
+     * Turns the instructions into flat opcode and operand arrays. Segments with a fixed address (static, temp and
+     * pointer) become that address, jumps and calls become instruction indexes and OS calls become JackOS ids.
+     */
+    private void decode() {
+        int size = instructions.size();
+        opcodes = new int[size];
+        operands = new int[size];
+        counts = new int[size];
+        hits = new long[size];
+        for (int pc = 0; pc < size; pc++) {
+            Instruction instruction = instructions.get(pc);
+            String arg1 = instruction.arg1();
+            int arg2 = instruction.arg2();
+            counts[pc] = arg2;
+            switch (instruction.command()) {
+                case "push", "pop" -> {
+                    boolean push = instruction.command().equals("push");
+                    int base = push ? PUSH_CONSTANT : POP_LOCAL - 1;
+                    operands[pc] = arg2;
+                    switch (arg1) {
+                        case "constant" -> {
+                            if (!push) {
+                                throw new IllegalArgumentException("Can't pop to constant");
+                            }
+                            opcodes[pc] = PUSH_CONSTANT;
+                        }
+                        case "local" -> opcodes[pc] = base + 1;
+                        case "argument" -> opcodes[pc] = base + 2;
+                        case "this" -> opcodes[pc] = base + 3;
+                        case "that" -> opcodes[pc] = base + 4;
+                        case "pointer", "temp", "static" -> {
+                            opcodes[pc] = base + 5;
+                            operands[pc] = switch (arg1) {
+                                case "pointer" -> THIS + arg2;
+                                case "temp" -> TEMP + arg2;
+                                default -> STATIC + instruction.staticBase() + arg2;
+                            };
+                        }
+                        default -> throw new IllegalArgumentException("Unknown segment " + arg1);
+                    }
+                }
+                case "add" -> opcodes[pc] = ADD;
+                case "sub" -> opcodes[pc] = SUB;
+                case "neg" -> opcodes[pc] = NEG;
+                case "eq" -> opcodes[pc] = EQ;
+                case "gt" -> opcodes[pc] = GT;
+                case "lt" -> opcodes[pc] = LT;
+                case "and" -> opcodes[pc] = AND;
+                case "or" -> opcodes[pc] = OR;
+                case "not" -> opcodes[pc] = NOT;
+                case "goto", "if-goto" -> {
+                    String label = functionNames.get(instruction.function()) + "$" + arg1;
+                    Integer target = labels.get(label);
+                    if (target == null) {
+                        throw new IllegalArgumentException("Unknown label " + label);
+                    }
+                    opcodes[pc] = instruction.command().equals("goto") ? GOTO : IF_GOTO;
+                    operands[pc] = target;
+                }
+                case "call" -> {
+                    Integer entry = functions.get(arg1);
+                    if (entry != null) {
+                        opcodes[pc] = CALL;
+                        operands[pc] = entry;
+                    } else {
+                        int id = JackOS.find(arg1);
+                        if (id < 0) {
+                            throw new IllegalArgumentException("Unknown function " + arg1);
+                        }
+                        opcodes[pc] = CALL_OS;
+                        operands[pc] = id;
+                    }
+                }
+                case "function" -> opcodes[pc] = FUNCTION;
+                case "return" -> opcodes[pc] = RETURN;
+                default -> throw new IllegalStateException(instruction.command());
+            }
+        }
+    }
+
+    /**
+     * The dispatch loop. SP, LCL and ARG live in locals and are written back to RAM around OS calls, so natives see
+     * the same memory a VM function would.
+     * @return false if the run was cut off by maxInstructions
+     */
+    private boolean execute(int pc) {
+        final int[] ram = this.ram;
+        final int[] opcodes = this.opcodes;
+        final int[] operands = this.operands;
+        final int[] counts = this.counts;
+        final long[] hits = this.hits;
+        int sp = ram[SP];
+        int lcl = ram[LCL];
+        int arg = ram[ARG];
+        long remaining = maxInstructions - instructionCount;
+        long executed = 0;
+        boolean finished = false;
+        loop:
+        while (executed < remaining) {
+            hits[pc]++;
+            executed++;
+            int operand = operands[pc];
+            switch (opcodes[pc]) {
+                case PUSH_CONSTANT -> ram[sp++] = operand;
+                case PUSH_LOCAL -> ram[sp++] = ram[lcl + operand];
+                case PUSH_ARGUMENT -> ram[sp++] = ram[arg + operand];
+                case PUSH_THIS -> ram[sp++] = ram[ram[THIS] + operand];
+                case PUSH_THAT -> ram[sp++] = ram[ram[THAT] + operand];
+                case PUSH_ADDRESS -> ram[sp++] = ram[operand];
+                case POP_LOCAL -> ram[lcl + operand] = ram[--sp];
+                case POP_ARGUMENT -> ram[arg + operand] = ram[--sp];
+                case POP_THIS -> ram[ram[THIS] + operand] = ram[--sp];
+                case POP_THAT -> ram[ram[THAT] + operand] = ram[--sp];
+                case POP_ADDRESS -> ram[operand] = ram[--sp];
+                case ADD -> {
+                    sp--;
+                    ram[sp - 1] = (short) (ram[sp - 1] + ram[sp]);
+                }
+                case SUB -> {
+                    sp--;
+                    ram[sp - 1] = (short) (ram[sp - 1] - ram[sp]);
+                }
+                case AND -> {
+                    sp--;
+                    ram[sp - 1] &= ram[sp];
+                }
+                case OR -> {
+                    sp--;
+                    ram[sp - 1] |= ram[sp];
+                }
+                case EQ -> {
+                    sp--;
+                    ram[sp - 1] = ram[sp - 1] == ram[sp] ? -1 : 0;
+                }
+                case GT -> {
+                    sp--;
+                    ram[sp - 1] = ram[sp - 1] > ram[sp] ? -1 : 0;
+                }
+                case LT -> {
+                    sp--;
+                    ram[sp - 1] = ram[sp - 1] < ram[sp] ? -1 : 0;
+                }
+                case NEG -> ram[sp - 1] = (short) -ram[sp - 1];
+                case NOT -> ram[sp - 1] = ~ram[sp - 1];
+                case GOTO -> {
+                    pc = operand;
+                    continue;
+                }
+                case IF_GOTO -> {
+                    if (ram[--sp] != 0) {
+                        pc = operand;
+                        continue;
+                    }
+                }
+                case CALL -> {
+                    int args = sp - counts[pc];
+                    ram[sp++] = pc + 1;
+                    ram[sp++] = lcl;
+                    ram[sp++] = arg;
+                    ram[sp++] = ram[THIS];
+                    ram[sp++] = ram[THAT];
+                    arg = args;
+                    lcl = sp;
+                    pc = operand;
+                    continue;
+                }
+                case CALL_OS -> {
+                    osCalls[operand]++;
+                    int args = sp - counts[pc];
+                    ram[SP] = sp;
+                    ram[LCL] = lcl;
+                    ram[ARG] = arg;
+                    int result = os.call(operand, args);
+                    lcl = ram[LCL];
+                    arg = ram[ARG];
+                    sp = args;
+                    ram[sp++] = result;
+                    if (os.isHalted()) {
+                        finished = true;
+                        break loop;
+                    }
+                }
+                case FUNCTION -> {
+                    for (int i = counts[pc]; i > 0; i--) {
+                        ram[sp++] = 0;
+                    }
+                }
+                case RETURN -> {
+                    int frame = lcl;
+                    int returnAddress = ram[frame - 5];
+                    ram[arg] = ram[sp - 1];
+                    sp = arg + 1;
+                    ram[THAT] = ram[frame - 1];
+                    ram[THIS] = ram[frame - 2];
+                    arg = ram[frame - 3];
+                    lcl = ram[frame - 4];
+                    if (returnAddress == RETURN_TO_HOST) {
+                        finished = true;
+                        break loop;
+                    }
+                    pc = returnAddress;
+                    continue;
+                }
+                default -> throw new IllegalStateException("Bad opcode " + opcodes[pc]);
+            }
+            pc++;
+        }
+        ram[SP] = sp;
+        ram[LCL] = lcl;
+        ram[ARG] = arg;
+        instructionCount += executed;
+        return finished;
+    }
+
+    /**
+     * @return what the program printed
+     */
+    public String getOutput() {
+        return os.getOutput();
+    }
+
+    public long getInstructionCount() {
+        return instructionCount;
+    }
+
+    /**
+     * @return calls to OS functions, whichever function they were
+     */
+    public long getOSCallCount() {
+        return Arrays.stream(osCalls).sum();
+    }
+
+    /**
+     * Prints the instruction total, then calls and instructions per function, busiest first, then the OS calls
+     */
+    public void report(PrintStream out) {
+        out.println("Instructions executed: " + instructionCount);
+        out.println("OS calls:              " + getOSCallCount());
+        // a function's instructions follow its entry up to the next function's, and its entry runs once per call
+        long[] functionCalls = new long[functionNames.size()];
+        long[] functionInstructions = new long[functionNames.size()];
+        for (int pc = 0; hits != null && pc < hits.length; pc++) {
+            Instruction instruction = instructions.get(pc);
+            if (instruction.command().equals("function")) {
+                functionCalls[instruction.function()] = hits[pc];
+            }
+            functionInstructions[instruction.function()] += hits[pc];
+        }
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < functionNames.size(); i++) {
+            if (functionCalls[i] > 0) {
+                order.add(i);
+            }
+        }
+        order.sort(Comparator.comparingLong((Integer i) -> -functionInstructions[i]));
+        out.printf("%-32s %10s %14s%n", "function", "calls", "instructions");
+        for (int i : order) {
+            out.printf("%-32s %10d %14d%n", functionNames.get(i), functionCalls[i], functionInstructions[i]);
+        }
+        for (int id = 0; id < osCalls.length; id++) {
+            if (osCalls[id] > 0) {
+                out.printf("%-32s %10d%n", JackOS.name(id), osCalls[id]);
+            }
+        }
+    }
+}
@@ -1,60 +1,208 @@
-import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 
+/**
+ * Records VM instructions into a VMCode buffer instead of formatting them straight away. The buffer holds one
+ * function at a time and is serialized when the next function starts or the writer is flushed.
+ */
 public class VMWriter {
-    private final FileWriter vmWriter;
-    private String padding = "    ";
+    private final Writer vmWriter;
+    private final VMCode code = new VMCode();
+    private PeepholeOptimizer optimizer = null;
+    private LocalAllocator localAllocator = null;
+    private HackWriter hackWriter = null;
 
     public VMWriter(String fileName) throws IOException {
-        vmWriter = new FileWriter(fileName);
+        this(new FileWriter(fileName));
+    }
+
+    /**
+     * @param vmWriter where the VM code is written, any Writer works e.g. a StringWriter to compile in memory
+     */
+    public VMWriter(Writer vmWriter) {
+        this.vmWriter = vmWriter;
+    }
+
+    /**
+     * @param optimizer run over every function before it's written, null to write the code as generated
+     */
+    public void setOptimizer(PeepholeOptimizer optimizer) {
+        this.optimizer = optimizer;
+    }
+
+    /**
+     * @param localAllocator run over every function after the optimizer, null to keep every declared local
+     */
+    public void setLocalAllocator(LocalAllocator localAllocator) {
+        this.localAllocator = localAllocator;
+    }
+
+    /**
+     * @param hackWriter also lowers every function to Hack assembly once it's optimized, null to only write VM code
+     */
+    public void setHackWriter(HackWriter hackWriter) {
+        this.hackWriter = hackWriter;
+    }
+
+    /**
+     * Serializes the buffered instructions
+     * @throws IOException if writer encounters an error
+     */
+    private void emit() throws IOException {
+        if (optimizer != null) {
+            optimizer.optimize(code);
+        }
+        if (localAllocator != null) {
+            localAllocator.allocate(code);
+        }
+        code.writeTo(vmWriter);
+        if (hackWriter != null) {
+            hackWriter.translate(code);
+        }
+        code.clear();
+    }
+
+    public void flush() throws IOException {
+        emit();
+        vmWriter.flush();
+        if (hackWriter != null) {
+            hackWriter.flush();
+        }
     }
 
     public void close() throws IOException {
+        emit();
         vmWriter.close();
+        if (hackWriter != null) {
+            hackWriter.close();
+        }
+    }
+
+    /**
+     * @return the index the next instruction will get, used to mark where an expression's code starts
+     */
+    public int position() {
+        return code.size();
+    }
+
+    /**
+     * Evaluates code that only computes a constant: push constant k followed by any number of neg and not
+     * @param start the first instruction
+     * @param end one past the last instruction
+     * @return the 16 bit signed value, or null if the code does anything else
+     */
+    public Integer constantValue(int start, int end) {
+        if (end <= start || code.opcode(start) != VMCode.PUSH || code.arg(start) != Segment.CONSTANT.ordinal()) {
+            return null;
+        }
+        int value = code.operand(start);
+        for (int i = start + 1; i < end; i++) {
+            if (code.opcode(i) != VMCode.ARITHMETIC) {
+                return null;
+            }
+            if (code.arg(i) == Ops.NEG.ordinal()) {
+                value = -value;
+            } else if (code.arg(i) == Ops.NOT.ordinal()) {
+                value = ~value;
+            } else {
+                return null;
+            }
+        }
+        return (int) (short) value;
+    }
+
+    /**
+     * @return true if the code can be dropped without changing what the program does: no calls and no comments
+     */
+    public boolean isPure(int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (code.opcode(i) == VMCode.CALL || !code.isInstruction(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the code is a single push of a variable, which gives the same value when pushed again
+     */
+    public boolean isVariablePush(int start, int end) {
+        return end - start == 1 && code.opcode(start) == VMCode.PUSH && code.arg(start) != Segment.CONSTANT.ordinal();
+    }
+
+    /**
+     * Writes another copy of an instruction that was already written
+     * @param i the index of the instruction
+     */
+    public void writeCopy(int i) {
+        code.add(code.opcode(i), code.arg(i), code.operand(i));
+    }
+
+    /**
+     * @return true if the last instruction written is the given arithmetic command
+     */
+    public boolean endsWith(Ops operation) {
+        int last = code.size() - 1;
+        return last >= 0 && code.opcode(last) == VMCode.ARITHMETIC && code.arg(last) == operation.ordinal();
+    }
+
+    /**
+     * Removes instructions written since start, they have to belong to the current function
+     */
+    public void truncate(int start) {
+        code.remove(start, code.size());
+    }
+
+    /**
+     * Removes the instructions from start up to but not including end
+     */
+    public void remove(int start, int end) {
+        code.remove(start, end);
     }
 
-    public void writePush(Segment seg, int index) throws IOException {
-        vmWriter.write(padding + "push " + seg.toString().toLowerCase() + " " + index + "\n");
+    public void writePush(Segment seg, int index) {
+        code.add(VMCode.PUSH, seg.ordinal(), index);
     }
 
-    public void writePop(Segment seg, int index) throws IOException {
-        vmWriter.write(padding + "pop " + seg.toString().toLowerCase() + " " + index + "\n");
+    public void writePop(Segment seg, int index) {
+        code.add(VMCode.POP, seg.ordinal(), index);
     }
 
-    public void writeArithmetic(Ops operation) throws IOException {
-        vmWriter.write(padding + operation.toString().toLowerCase() + "\n");
+    public void writeArithmetic(Ops operation) {
+        code.add(VMCode.ARITHMETIC, operation.ordinal(), 0);
     }
 
-    public void writeLabel(String label) throws IOException {
-        vmWriter.write("label " + label + '\n');
+    public void writeLabel(String label) {
+        code.add(VMCode.LABEL, code.intern(label), 0);
     }
 
-    public void writeGoTo(String label) throws IOException {
-        vmWriter.write(padding + "goto " + label + "\n");
+    public void writeGoTo(String label) {
+        code.add(VMCode.GOTO, code.intern(label), 0);
     }
 
-    public void writeIf(String label) throws IOException {
-        vmWriter.write(padding + "if-goto " + label + "\n");
+    public void writeIf(String label) {
+        code.add(VMCode.IF_GOTO, code.intern(label), 0);
     }
 
-    public void writeCall(String name, int args) throws IOException {
-        vmWriter.write(padding + "call " + name + " " + args + "\n");
+    public void writeCall(String name, int args) {
+        code.add(VMCode.CALL, code.intern(name), args);
     }
 
     public void writeFunction(String name, int nVars) throws IOException {
-        vmWriter.write(padding + "\nfunction " + name + " " + nVars +  "\n");
+        emit(); // the previous function is complete
+        code.add(VMCode.FUNCTION, code.intern(name), nVars);
     }
 
-    public void writeReturn() throws IOException {
-        vmWriter.write(padding + "return\n");
+    public void writeReturn() {
+        code.add(VMCode.RETURN, 0, 0);
     }
 
-    public void writeAsComment(String commentText) throws IOException {
-        vmWriter.write("//" + commentText + "\n");
+    public void writeAsComment(String commentText) {
+        code.add(VMCode.COMMENT, code.intern(commentText), 0);
     }
 
-    public void write(String string) throws IOException {
-        vmWriter.write(string);
+    public void write(String string) {
+        code.add(VMCode.RAW, code.intern(string), 0);
     }
 }
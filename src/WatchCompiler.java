@@ -0,0 +1,106 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long running mode that recompiles .jack files as they change. A single CompilationEngine is kept warm and reused,
+ * so after the first few compiles the JIT has already done its work.
+ */
+public class WatchCompiler {
+
+    private final Path directory;
+    private final String inputDirectory;
+    private final String outputDirectory;
+    private final long debounceMillis;
+    private final CompilationEngine engine = new CompilationEngine();
+
+    /**
+     * @param directory the directory of .jack files to watch
+     * @param inputDirectory The directory containing the files to translate
+     * @param outputDirectory The output directory for the translated files
+     * @param options the compile options, so watched files compile the same as in a normal build
+     * @param debounceMillis how long the directory has to stay quiet before a burst of changes is compiled
+     * @throws IOException if the engine can't be created
+     */
+    public WatchCompiler(Path directory, String inputDirectory, String outputDirectory, CompilerDriver options,
+                         long debounceMillis) throws IOException {
+        this.directory = directory;
+        this.inputDirectory = inputDirectory;
+        this.outputDirectory = outputDirectory;
+        this.debounceMillis = debounceMillis;
+        // the per token debug output would dwarf the compile itself
+        engine.setConsole(null);
+        options.configure(engine);
+    }
+
+    /**
+     * Compiles every file once, then recompiles changed files until the thread is interrupted
+     * @throws IOException if the directory can't be watched
+     */
+    public void run() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.jack")) {
+            for (Path file : files) {
+                compile(file);
+            }
+        }
+
+        try (WatchService watcher = directory.getFileSystem().newWatchService()) {
+            directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            System.out.println("Watching " + directory + " for changes");
+            while (!Thread.currentThread().isInterrupted()) {
+                Set<Path> changed = new LinkedHashSet<>();
+                WatchKey key = watcher.take();
+                // keep collecting until no event arrives for the debounce period
+                while (key != null) {
+                    collect(key, changed);
+                    if (!key.reset()) {
+                        System.out.println(directory + " is no longer accessible");
+                        return;
+                    }
+                    key = watcher.poll(debounceMillis, TimeUnit.MILLISECONDS);
+                }
+                for (Path file : changed) {
+                    if (Files.exists(file)) {
+                        compile(file);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void collect(WatchKey key, Set<Path> changed) {
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // events were lost, so recompile everything
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.jack")) {
+                    files.forEach(changed::add);
+                } catch (IOException e) {
+                    System.err.println("Could not list " + directory + ": " + e.getMessage());
+                }
+            } else if (event.context() instanceof Path name && name.toString().endsWith(".jack")) {
+                changed.add(directory.resolve(name));
+            }
+        }
+    }
+
+    private void compile(Path file) {
+        String fileName = file.toString();
+        long start = System.nanoTime();
+        try {
+            engine.init(fileName, inputDirectory, outputDirectory);
+            try {
+                engine.compileClass();
+            } finally {
+                engine.close();
+            }
+            System.out.printf("%s compiled in %.2fms%n", fileName, (System.nanoTime() - start) / 1e6);
+        } catch (IOException | RuntimeException e) {
+            // keep watching, the next save will most likely fix it
+            System.err.println(fileName + " failed: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,329 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Writes the parse tree xml of a class. Declared names are annotated with their symbol table entry, so the generator
+ * keeps symbol tables of its own.
+ */
+public class XMLGenerator implements AstVisitor {
+
+    private static final String INDENT = "    ";
+
+    private final Writer xmlWriter;
+    private int indentCount = 0;
+
+    private final SymbolTable classLevelSymbols = new SymbolTable();
+    private final SymbolTable subroutineLevelSymbols = new SymbolTable();
+
+    /**
+     * @param xmlWriter the parse tree xml output
+     */
+    public XMLGenerator(Writer xmlWriter) {
+        this.xmlWriter = xmlWriter;
+    }
+
+    private void writeTerminal(String tag, String value) throws IOException {
+        xmlWriter.write(INDENT.repeat(indentCount) + "<" + tag + "> " + value + " </" + tag + ">\n");
+    }
+
+    private void writeSymbol(char symbol) throws IOException {
+        String value = switch (symbol) {
+            case '<' -> "&lt;";
+            case '>' -> "&gt;";
+            case '"' -> "&quot;";
+            case '&' -> "&amp;";
+            default -> String.valueOf(symbol);
+        };
+        writeTerminal("symbol", value);
+    }
+
+    private void writeKeyword(String keyword) throws IOException {
+        writeTerminal("keyword", keyword);
+    }
+
+    private void writeIdentifier(String identifier) throws IOException {
+        writeTerminal("identifier", identifier);
+    }
+
+    private void writeType(Ast.Type type) throws IOException {
+        writeTerminal(type.keyword() ? "keyword" : "identifier", type.name());
+    }
+
+    private void writeOpenTag(String tag) throws IOException {
+        xmlWriter.write(INDENT.repeat(indentCount) + "<" + tag + ">\n");
+        indentCount++;
+    }
+
+    private void writeCloseTag(String tag) throws IOException {
+        indentCount--;
+        xmlWriter.write(INDENT.repeat(indentCount) + "</" + tag + ">\n");
+    }
+
+    @Override
+    public void visitClass(Ast.Class node) throws IOException {
+        classLevelSymbols.reset();
+        writeOpenTag("class");
+        writeKeyword("class");
+        writeIdentifier(node.name());
+        writeSymbol('{');
+        for (Ast.ClassVarDec varDec : node.varDecs()) {
+            writeClassVarDec(varDec, node.name());
+        }
+        for (Ast.Subroutine subroutine : node.subroutines()) {
+            writeSubroutineDec(subroutine, node.name());
+        }
+        writeSymbol('}');
+        writeCloseTag("class");
+    }
+
+    private void writeClassVarDec(Ast.ClassVarDec node, String className) throws IOException {
+        writeOpenTag("classVarDec");
+        writeKeyword(node.kind());
+        writeType(node.type());
+        SymbolTable.kind kind = SymbolTable.kind.valueOf(node.kind().toUpperCase());
+        List<Ast.Name> names = node.names();
+        Ast.Name first = names.get(0);
+        classLevelSymbols.define(first.id(), first.text(), node.type().name(), kind);
+        // only the first name of a declaration is annotated
+        writeIdentifier(first.text() + classLevelSymbols.getPropertiesOfVar(first.id()));
+        for (int i = 1; i < names.size(); i++) {
+            writeSymbol(',');
+            classLevelSymbols.define(names.get(i).id(), names.get(i).text(), node.type().name(), kind);
+            writeIdentifier(names.get(i).text());
+        }
+        writeSymbol(';');
+        writeCloseTag("classVarDec");
+    }
+
+    private void writeSubroutineDec(Ast.Subroutine node, String className) throws IOException {
+        subroutineLevelSymbols.reset();
+        if (node.kind().equals("method")) {
+            subroutineLevelSymbols.define(-1, "this", className, SymbolTable.kind.ARG);
+        }
+        writeOpenTag("subroutineDec");
+        writeKeyword(node.kind());
+        if (node.returnType() == null) {
+            writeKeyword("void");
+        } else {
+            writeType(node.returnType());
+        }
+        writeIdentifier(node.name());
+        writeSymbol('(');
+
+        writeOpenTag("parameterList");
+        for (int i = 0; i < node.parameters().size(); i++) {
+            Ast.Parameter parameter = node.parameters().get(i);
+            if (i > 0) {
+                writeSymbol(',');
+            }
+            writeType(parameter.type());
+            Ast.Name name = parameter.name();
+            subroutineLevelSymbols.define(name.id(), name.text(), parameter.type().name(), SymbolTable.kind.ARG);
+            writeIdentifier(name.text() + subroutineLevelSymbols.getPropertiesOfVar(name.id()));
+        }
+        writeCloseTag("parameterList");
+        writeSymbol(')');
+
+        writeOpenTag("subroutineBody");
+        writeSymbol('{');
+        for (Ast.VarDec varDec : node.varDecs()) {
+            writeOpenTag("varDec");
+            writeKeyword("var");
+            writeType(varDec.type());
+            for (int i = 0; i < varDec.names().size(); i++) {
+                Ast.Name name = varDec.names().get(i);
+                if (i > 0) {
+                    writeSymbol(',');
+                }
+                subroutineLevelSymbols.define(name.id(), name.text(), varDec.type().name(), SymbolTable.kind.VAR);
+                writeIdentifier(name.text() + subroutineLevelSymbols.getPropertiesOfVar(name.id()));
+            }
+            writeSymbol(';');
+            writeCloseTag("varDec");
+        }
+        if (node.statements() != null) {
+            writeStatements(node.statements());
+        }
+        writeSymbol('}');
+        writeCloseTag("subroutineBody");
+        writeCloseTag("subroutineDec");
+    }
+
+    private void writeStatements(Ast.Statements node) throws IOException {
+        writeOpenTag("statements");
+        for (Ast.Statement statement : node.statements()) {
+            statement.accept(this);
+        }
+        writeCloseTag("statements");
+    }
+
+    @Override
+    public void visitLet(Ast.Let node) throws IOException {
+        writeOpenTag("letStatement");
+        writeKeyword("let");
+        writeIdentifier(node.name().text());
+        if (node.index() != null) {
+            writeSymbol('[');
+            node.index().accept(this);
+            writeSymbol(']');
+        }
+        writeSymbol('=');
+        node.value().accept(this);
+        writeSymbol(';');
+        writeCloseTag("letStatement");
+    }
+
+    @Override
+    public void visitIf(Ast.If node) throws IOException {
+        writeOpenTag("ifStatement");
+        writeKeyword("if");
+        writeSymbol('(');
+        node.condition().accept(this);
+        writeSymbol(')');
+        writeSymbol('{');
+        writeStatements(node.then());
+        writeSymbol('}');
+        if (node.otherwise() != null) {
+            writeKeyword("else");
+            writeSymbol('{');
+            writeStatements(node.otherwise());
+            writeSymbol('}');
+        }
+        writeCloseTag("ifStatement");
+    }
+
+    @Override
+    public void visitWhile(Ast.While node) throws IOException {
+        writeOpenTag("whileStatement");
+        writeKeyword("while");
+        writeSymbol('(');
+        node.condition().accept(this);
+        writeSymbol(')');
+        writeSymbol('{');
+        writeStatements(node.body());
+        writeSymbol('}');
+        writeCloseTag("whileStatement");
+    }
+
+    @Override
+    public void visitDo(Ast.Do node) throws IOException {
+        writeOpenTag("doStatement");
+        writeKeyword("do");
+        writeCall(node.call());
+        writeSymbol(';');
+        writeCloseTag("doStatement");
+    }
+
+    @Override
+    public void visitReturn(Ast.Return node) throws IOException {
+        writeOpenTag("returnStatement");
+        writeKeyword("return");
+        if (node.value() != null) {
+            node.value().accept(this);
+        }
+        writeSymbol(';');
+        writeCloseTag("returnStatement");
+    }
+
+    @Override
+    public void visitExpression(Ast.Expression node) throws IOException {
+        writeOpenTag("expression");
+        node.terms().get(0).accept(this);
+        for (int i = 0; i < node.ops().size(); i++) {
+            writeSymbol(node.ops().get(i));
+            node.terms().get(i + 1).accept(this);
+        }
+        writeCloseTag("expression");
+    }
+
+    private void writeExpressionList(List<Ast.Expression> expressions) throws IOException {
+        writeOpenTag("expressionList");
+        for (int i = 0; i < expressions.size(); i++) {
+            if (i > 0) {
+                writeSymbol(',');
+            }
+            expressions.get(i).accept(this);
+        }
+        writeCloseTag("expressionList");
+    }
+
+    @Override
+    public void visitIntegerConstant(Ast.IntegerConstant node) throws IOException {
+        writeOpenTag("term");
+        writeTerminal("integerConstant", Integer.toString(node.value()));
+        writeCloseTag("term");
+    }
+
+    @Override
+    public void visitStringConstant(Ast.StringConstant node) throws IOException {
+        writeOpenTag("term");
+        writeTerminal("stringConstant", node.value());
+        writeCloseTag("term");
+    }
+
+    @Override
+    public void visitKeywordConstant(Ast.KeywordConstant node) throws IOException {
+        writeOpenTag("term");
+        writeKeyword(node.keyword());
+        writeCloseTag("term");
+    }
+
+    @Override
+    public void visitEmptyTerm(Ast.EmptyTerm node) throws IOException {
+        writeOpenTag("term");
+        writeCloseTag("term");
+    }
+
+    @Override
+    public void visitUnary(Ast.Unary node) throws IOException {
+        writeOpenTag("term");
+        writeSymbol(node.op());
+        node.operand().accept(this);
+        writeCloseTag("term");
+    }
+
+    @Override
+    public void visitParenthesized(Ast.Parenthesized node) throws IOException {
+        writeOpenTag("term");
+        writeSymbol('(');
+        node.expression().accept(this);
+        writeSymbol(')');
+        writeCloseTag("term");
+    }
+
+    @Override
+    public void visitVariable(Ast.Variable node) throws IOException {
+        writeOpenTag("term");
+        writeIdentifier(node.name().text());
+        writeCloseTag("term");
+    }
+
+    @Override
+    public void visitArrayElement(Ast.ArrayElement node) throws IOException {
+        writeOpenTag("term");
+        writeIdentifier(node.name().text());
+        writeSymbol('[');
+        node.index().accept(this);
+        writeSymbol(']');
+        writeCloseTag("term");
+    }
+
+    @Override
+    public void visitCall(Ast.Call node) throws IOException {
+        writeOpenTag("term");
+        writeCall(node);
+        writeCloseTag("term");
+    }
+
+    private void writeCall(Ast.Call node) throws IOException {
+        if (node.target() != null) {
+            writeIdentifier(node.target().text());
+            writeSymbol('.');
+        }
+        writeIdentifier(node.name().text());
+        writeSymbol('(');
+        writeExpressionList(node.arguments());
+        writeSymbol(')');
+    }
+}